@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * Minimal stand-in of android.os.Build to run the library on the plain JVM.
+ * The JVM provides every API that the library uses, so it reports the latest supported version.
+ */
+public final class Build {
+
+    private Build() {
+    }
+
+    public static final class VERSION {
+        public static final int SDK_INT = VERSION_CODES.N;
+
+        private VERSION() {
+        }
+    }
+
+    public static final class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+
+        private VERSION_CODES() {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal stand-in of android.os.Handler to run the library on the plain JVM.
+ * Runnables are delivered in order of the posted time and then the posted order.
+ */
+public class Handler {
+
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private final Looper mLooper;
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public Handler() {
+        this(Looper.myLooper());
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        final long when = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        return mLooper.mQueue.add(new Entry(this, r, when));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        for (Entry entry : mLooper.mQueue) {
+            if (entry.mHandler == this && entry.mRunnable == r) {
+                mLooper.mQueue.remove(entry);
+            }
+        }
+    }
+
+    static final class Entry implements Delayed {
+        private final Handler mHandler;
+        private final Runnable mRunnable;
+        private final long mWhen;
+        private final long mSequence;
+
+        Entry(Handler handler, Runnable runnable, long when) {
+            mHandler = handler;
+            mRunnable = runnable;
+            mWhen = when;
+            mSequence = sSequence.incrementAndGet();
+        }
+
+        void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(mWhen - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            final Entry other = (Entry) o;
+            if (mWhen != other.mWhen) {
+                return mWhen < other.mWhen ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
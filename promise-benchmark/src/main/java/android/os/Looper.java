@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+
+/**
+ * Minimal stand-in of android.os.Looper to run the library on the plain JVM.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
+    private static Looper sMainLooper;
+
+    final DelayQueue<Handler.Entry> mQueue = new DelayQueue<>();
+    private final Thread mThread;
+    private volatile boolean mQuitting;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    /**
+     * Returns the looper of the daemon thread that is started at the first call.
+     */
+    public static synchronized Looper getMainLooper() {
+        if (sMainLooper == null) {
+            final CountDownLatch prepared = new CountDownLatch(1);
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    prepare();
+                    sMainLooper = myLooper();
+                    prepared.countDown();
+                    loop();
+                }
+            }, "main");
+            thread.setDaemon(true);
+            thread.start();
+
+            boolean interrupted = false;
+            for (; ; ) {
+                try {
+                    prepared.await();
+                    break;
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return sMainLooper;
+    }
+
+    public static void loop() {
+        final Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        while (!me.mQuitting) {
+            final Handler.Entry entry;
+            try {
+                entry = me.mQueue.take();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            entry.run();
+        }
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public void quit() {
+        mQuitting = true;
+        mThread.interrupt();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.webkit;
+
+/**
+ * Minimal stand-in of android.webkit.MimeTypeMap to run the library on the plain JVM.
+ * Knows no types.
+ */
+public class MimeTypeMap {
+
+    private static final MimeTypeMap sSingleton = new MimeTypeMap();
+
+    private MimeTypeMap() {
+    }
+
+    public static MimeTypeMap getSingleton() {
+        return sSingleton;
+    }
+
+    public String getMimeTypeFromExtension(String extension) {
+        return null;
+    }
+
+    public String getExtensionFromMimeType(String mimeType) {
+        return null;
+    }
+}
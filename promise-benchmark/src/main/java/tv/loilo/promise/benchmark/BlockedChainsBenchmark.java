@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.Defer;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Deferred;
+import tv.loilo.promise.FinishCallback;
+import tv.loilo.promise.FinishParams;
+import tv.loilo.promise.PromiseExecutor;
+import tv.loilo.promise.Promises;
+import tv.loilo.promise.WhenCallback;
+import tv.loilo.promise.WhenParams;
+
+/**
+ * Measures the time to keep the given number of chains blocked at once and then complete them,
+ * on the cached thread pool and on virtual threads.
+ * Virtual threads need Java 21 or later, otherwise the virtual mode falls back to the cached thread pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BlockedChainsBenchmark {
+
+    @Param({"pool", "virtual"})
+    public String mode;
+
+    @Param({"100", "1000", "10000"})
+    public int chains;
+
+    private PromiseExecutor mExecutor;
+
+    @Setup
+    public void setUp() {
+        if ("virtual".equals(mode)) {
+            if (!PromiseExecutor.isVirtualThreadSupported()) {
+                System.err.println("Virtual threads are not supported. Falls back to the cached thread pool.");
+            }
+            mExecutor = PromiseExecutor.newVirtualThreadPerTask("benchmark");
+        } else {
+            mExecutor = PromiseExecutor.newCached("benchmark");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        mExecutor.shutdownNow();
+        mExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public long blockAndRelease() throws InterruptedException {
+        final Deferrable<Void> gate = new Deferrable<>();
+        final CountDownLatch blocked = new CountDownLatch(chains);
+        final CountDownLatch finished = new CountDownLatch(chains);
+
+        for (int i = 0; i < chains; ++i) {
+            Promises.when(new WhenCallback<Void>() {
+                @Override
+                public Deferred<Void> run(WhenParams params) throws Exception {
+                    blocked.countDown();
+                    //Blocks the thread like the callbacks waiting for I/O.
+                    gate.getResult();
+                    return Defer.success(null);
+                }
+            }).finish(new FinishCallback<Void>() {
+                @Override
+                public void run(FinishParams<Void> params) {
+                    finished.countDown();
+                }
+            }).submitOn(mExecutor);
+        }
+
+        //All of the chains are blocked at once here.
+        blocked.await();
+        gate.setSucceeded(null);
+        finished.await();
+        return mExecutor.getCompletedCount();
+    }
+}
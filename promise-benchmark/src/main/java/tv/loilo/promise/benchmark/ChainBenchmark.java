@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.Defer;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Deferred;
+import tv.loilo.promise.FinishCallback;
+import tv.loilo.promise.FinishParams;
+import tv.loilo.promise.Promise;
+import tv.loilo.promise.Promises;
+import tv.loilo.promise.Result;
+import tv.loilo.promise.Submittable;
+import tv.loilo.promise.ThenCallback;
+import tv.loilo.promise.ThenParams;
+import tv.loilo.promise.WhenCallback;
+import tv.loilo.promise.WhenParams;
+
+/**
+ * Measures building, submitting and completing {@code when(...).then(...).finish(...)} chains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmark {
+
+    private static final WhenCallback<Integer> WHEN = new WhenCallback<Integer>() {
+        @Override
+        public Deferred<Integer> run(WhenParams params) throws Exception {
+            return Defer.success(0);
+        }
+    };
+
+    private static final ThenCallback<Integer, Integer> THEN = new ThenCallback<Integer, Integer>() {
+        @Override
+        public Deferred<Integer> run(ThenParams<Integer> params) throws Exception {
+            return Defer.success(params.getValue() + 1);
+        }
+    };
+
+    @Param({"1", "10", "100"})
+    public int depth;
+
+    private static Submittable build(final int depth, final Deferrable<Integer> done) {
+        Promise<Integer> promise = Promises.when(WHEN);
+        for (int i = 0; i < depth; ++i) {
+            promise = promise.then(THEN);
+        }
+        return promise.finish(new FinishCallback<Integer>() {
+            @Override
+            public void run(FinishParams<Integer> params) {
+                done.setResult(params.asResult());
+            }
+        });
+    }
+
+    @Benchmark
+    public Submittable construct() {
+        return build(depth, new Deferrable<Integer>());
+    }
+
+    @Benchmark
+    public Result<Integer> submitAndComplete() {
+        final Deferrable<Integer> done = new Deferrable<>();
+        build(depth, done).submit();
+        return done.getResult();
+    }
+}
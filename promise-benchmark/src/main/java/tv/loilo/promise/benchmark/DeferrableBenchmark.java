@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Result;
+
+/**
+ * Measures the latency of handing a result from a producer thread to a waiting thread through {@link Deferrable}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeferrableBenchmark {
+
+    private static final Object VALUE = new Object();
+
+    private ExecutorService mProducer;
+
+    @Setup
+    public void setUp() {
+        mProducer = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProducer.shutdownNow();
+    }
+
+    @Benchmark
+    public Result<Object> completed() {
+        final Deferrable<Object> deferrable = new Deferrable<>();
+        deferrable.setSucceeded(VALUE);
+        return deferrable.getResult();
+    }
+
+    @Benchmark
+    public Result<Object> handoff() {
+        final Deferrable<Object> deferrable = new Deferrable<>();
+        mProducer.execute(new Runnable() {
+            @Override
+            public void run() {
+                deferrable.setSucceeded(VALUE);
+            }
+        });
+        return deferrable.getResult();
+    }
+}
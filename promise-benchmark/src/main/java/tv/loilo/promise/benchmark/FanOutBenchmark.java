@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.FinishCallback;
+import tv.loilo.promise.FinishParams;
+import tv.loilo.promise.Promise;
+import tv.loilo.promise.Promises;
+import tv.loilo.promise.Result;
+
+/**
+ * Measures {@link Promises#whenAll} and {@link Promises#whenAny} with many child promises.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanOutBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int fanOut;
+
+    private Promise<Integer>[] mPromises;
+
+    private static <T> Result<T> await(final Promise<T> promise) {
+        final Deferrable<T> done = new Deferrable<>();
+        promise.finish(new FinishCallback<T>() {
+            @Override
+            public void run(FinishParams<T> params) {
+                done.setResult(params.asResult());
+            }
+        }).submit();
+        return done.getResult();
+    }
+
+    @Setup
+    public void setUp() {
+        @SuppressWarnings("unchecked") final Promise<Integer>[] promises = (Promise<Integer>[]) new Promise<?>[fanOut];
+        for (int i = 0; i < fanOut; ++i) {
+            promises[i] = Promises.success(i);
+        }
+        mPromises = promises;
+    }
+
+    @Benchmark
+    public Result<List<Integer>> whenAll() {
+        return await(Promises.whenAll(mPromises));
+    }
+
+    @Benchmark
+    public Result<Integer> whenAny() {
+        return await(Promises.whenAny(mPromises));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+import tv.loilo.promise.http.ResponseFile;
+import tv.loilo.promise.http.ResponseFileWriter;
+
+/**
+ * Compares the Okio path of {@link ResponseFileWriter} with the FileChannel path, writing a large response body read from a file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseFileWriterBenchmark {
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    @Param({"16", "256"})
+    public int megabytes;
+
+    @Param({"okio", "channel", "channelSync"})
+    public String writer;
+
+    private File mInput;
+    private File mOutput;
+    private Request mRequest;
+    private ResponseFileWriter mWriter;
+
+    @Setup
+    public void setUp() throws IOException {
+        mInput = File.createTempFile("response-file-writer-input", ".bin");
+        mOutput = File.createTempFile("response-file-writer-output", ".bin");
+
+        final byte[] chunk = new byte[1024 * 1024];
+        new Random(0).nextBytes(chunk);
+        final BufferedSink sink = Okio.buffer(Okio.sink(mInput));
+        try {
+            for (int i = 0; i < megabytes; ++i) {
+                sink.write(chunk);
+            }
+        } finally {
+            sink.close();
+        }
+
+        mRequest = new Request.Builder().url("http://localhost/").build();
+        switch (writer) {
+            case "okio":
+                mWriter = new ResponseFileWriter(mOutput);
+                break;
+            case "channel":
+                mWriter = new ResponseFileWriter(mOutput, true, false);
+                break;
+            case "channelSync":
+                mWriter = new ResponseFileWriter(mOutput, true, true);
+                break;
+            default:
+                throw new IllegalArgumentException(writer);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mInput.delete();
+        mOutput.delete();
+    }
+
+    @Benchmark
+    public ResponseFile write() throws Exception {
+        final Response response = new Response.Builder()
+                .request(mRequest)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(OCTET_STREAM, mInput.length(), Okio.buffer(Okio.source(mInput))))
+                .build();
+        return mWriter.pass(response);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.Canceller;
+import tv.loilo.promise.Defer;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Deferred;
+import tv.loilo.promise.FinishCallback;
+import tv.loilo.promise.FinishParams;
+import tv.loilo.promise.Job;
+import tv.loilo.promise.Promises;
+import tv.loilo.promise.Result;
+import tv.loilo.promise.Scheduler;
+import tv.loilo.promise.WhenCallback;
+import tv.loilo.promise.WhenParams;
+
+/**
+ * Measures {@link Scheduler#post} round trips while many threads post to one scheduler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    private static final Canceller DONE = new Canceller() {
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private static final WhenCallback<Integer> WHEN = new WhenCallback<Integer>() {
+        @Override
+        public Deferred<Integer> run(WhenParams params) throws Exception {
+            return Defer.success(0);
+        }
+    };
+
+    private Scheduler mScheduler;
+
+    @Setup
+    public void setUp() {
+        mScheduler = new Scheduler(4);
+    }
+
+    /**
+     * Posts a job that completes in place, so only the scheduler bookkeeping is measured.
+     */
+    @Benchmark
+    public Result<Object> post() {
+        final Deferrable<Object> done = new Deferrable<>();
+        mScheduler.post(new Job() {
+            @Override
+            public Canceller doWork(Object tag, Runnable postProcess) {
+                done.setSucceeded(tag);
+                postProcess.run();
+                return DONE;
+            }
+
+            @Override
+            public void giveUp(Object tag) {
+                done.setCanceled();
+            }
+        }, null);
+        return done.getResult();
+    }
+
+    @Benchmark
+    public Result<Integer> submitOn() {
+        final Deferrable<Integer> done = new Deferrable<>();
+        Promises.when(WHEN).finish(new FinishCallback<Integer>() {
+            @Override
+            public void run(FinishParams<Integer> params) {
+                done.setResult(params.asResult());
+            }
+        }).submitOn(mScheduler);
+        return done.getResult();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.Pipe;
+import tv.loilo.promise.SingleAssignment;
+
+/**
+ * Compares {@link SingleAssignment} with {@link Pipe}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingleAssignmentBenchmark {
+
+    private static final Object VALUE = new Object();
+
+    private Pipe<Object> mAssignedPipe;
+    private SingleAssignment<Object> mAssignedCell;
+    private ExecutorService mProducer;
+
+    @Setup
+    public void setUp() {
+        mAssignedPipe = new Pipe<>();
+        mAssignedPipe.set(VALUE);
+        mAssignedCell = new SingleAssignment<>();
+        mAssignedCell.set(VALUE);
+        mProducer = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProducer.shutdownNow();
+    }
+
+    @Benchmark
+    public Object pipeSetGet() throws InterruptedException {
+        final Pipe<Object> pipe = new Pipe<>();
+        pipe.set(VALUE);
+        return pipe.get();
+    }
+
+    @Benchmark
+    public Object singleAssignmentSetGet() throws InterruptedException {
+        final SingleAssignment<Object> cell = new SingleAssignment<>();
+        cell.set(VALUE);
+        return cell.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object pipeConcurrentGet() throws InterruptedException {
+        return mAssignedPipe.get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object singleAssignmentConcurrentGet() throws InterruptedException {
+        return mAssignedCell.get();
+    }
+
+    @Benchmark
+    public Object pipeHandoff() throws InterruptedException {
+        final Pipe<Object> pipe = new Pipe<>();
+        mProducer.execute(new Runnable() {
+            @Override
+            public void run() {
+                pipe.set(VALUE);
+            }
+        });
+        return pipe.get();
+    }
+
+    @Benchmark
+    public Object singleAssignmentHandoff() throws InterruptedException {
+        final SingleAssignment<Object> cell = new SingleAssignment<>();
+        mProducer.execute(new Runnable() {
+            @Override
+            public void run() {
+                cell.set(VALUE);
+            }
+        });
+        return cell.get();
+    }
+}
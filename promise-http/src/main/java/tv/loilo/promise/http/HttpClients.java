@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import tv.loilo.promise.PromiseExecutor;
+
+/**
+ * Owns the OkHttpClient shared by the HttpTasks, so the connections are kept alive and multiplexed across the requests.
+ * <p>
+ * The built-in client runs the calls on a {@link PromiseExecutor}, so its counters sit alongside the queue of the OkHttp dispatcher.
+ */
+public final class HttpClients {
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 8;
+    public static final long DEFAULT_KEEP_ALIVE_MINUTES = 5;
+    public static final int DEFAULT_MAX_REQUESTS = 64;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 8;
+
+    private static final Object mLock = new Object();
+    @Nullable
+    private static OkHttpClient mBuiltInClient;
+    @Nullable
+    private static volatile OkHttpClient mDefaultClient;
+
+    private HttpClients() {
+    }
+
+    /**
+     * Makes the builder with its own connection pool and dispatcher.
+     *
+     * @param name               the prefix of the dispatcher thread names
+     * @param maxIdleConnections the maximum number of the idle connections kept alive
+     * @param maxRequests        the maximum number of the calls running at once
+     * @param maxRequestsPerHost the maximum number of the calls running at once for each host
+     * @param isHttp2Enabled     {@code false} to use HTTP/1.1 only
+     * @param cacheDirectory     the directory of the response cache, or null to disable the cache
+     * @param cacheMaxSize       the maximum bytes of the response cache
+     */
+    @NonNull
+    public static OkHttpClient.Builder newBuilder(
+            @NonNull final String name,
+            final int maxIdleConnections,
+            final int maxRequests,
+            final int maxRequestsPerHost,
+            final boolean isHttp2Enabled,
+            @Nullable final File cacheDirectory,
+            final long cacheMaxSize) {
+        final Dispatcher dispatcher = new Dispatcher(PromiseExecutor.newCached(name));
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+        final OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, DEFAULT_KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .protocols(isHttp2Enabled
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1));
+        if (cacheDirectory != null) {
+            builder.cache(new Cache(cacheDirectory, cacheMaxSize));
+        }
+        return builder;
+    }
+
+    /**
+     * @return the client that {@link HttpTask} uses by default
+     */
+    @NonNull
+    public static OkHttpClient getDefault() {
+        final OkHttpClient client = mDefaultClient;
+        if (client != null) {
+            return client;
+        }
+        return getBuiltIn();
+    }
+
+    /**
+     * Replaces the client that {@link HttpTask} uses by default.
+     * Share the connections by deriving the client from {@link #getDefault()} with {@link OkHttpClient#newBuilder()}.
+     *
+     * @param client the client, or null to restore the built-in client
+     */
+    public static void setDefault(@Nullable final OkHttpClient client) {
+        mDefaultClient = client;
+    }
+
+    @NonNull
+    private static OkHttpClient getBuiltIn() {
+        synchronized (mLock) {
+            if (mBuiltInClient == null) {
+                mBuiltInClient = newBuilder("loilo-promise-http",
+                        DEFAULT_MAX_IDLE_CONNECTIONS,
+                        DEFAULT_MAX_REQUESTS,
+                        DEFAULT_MAX_REQUESTS_PER_HOST,
+                        true,
+                        null,
+                        0).build();
+            }
+            return mBuiltInClient;
+        }
+    }
+
+    /**
+     * @return the number of the calls waiting in the dispatcher of the default client
+     */
+    public static int getQueuedCallsCount() {
+        return getDefault().dispatcher().queuedCallsCount();
+    }
+
+    /**
+     * @return the number of the calls running in the dispatcher of the default client
+     */
+    public static int getRunningCallsCount() {
+        return getDefault().dispatcher().runningCallsCount();
+    }
+
+    /**
+     * @return the executor of the dispatcher of the default client, or null if it is not a {@link PromiseExecutor}
+     */
+    @Nullable
+    public static PromiseExecutor getDispatcherExecutor() {
+        final ExecutorService executorService = getDefault().dispatcher().executorService();
+        return executorService instanceof PromiseExecutor ? (PromiseExecutor) executorService : null;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+import tv.loilo.promise.ProgressReporter;
+
+/**
+ * Reporter that drops the progress reported too often, and passes the rest to the wrapped reporter.
+ * The progress is passed when all of the non-zero thresholds are reached since the last passed progress.
+ * The first progress of a phase, the completed progress and the last progress at the end of the stream are always passed,
+ * so the wrapped reporter never misses the latest state.
+ * <p>
+ * {@link ProgressResponseBody} and {@link ProgressRequestBody} do not allocate the dropped progress.
+ */
+public final class HttpProgressThrottle implements ProgressReporter<HttpProgress> {
+
+    @NonNull
+    private final ProgressReporter<HttpProgress> mReporter;
+    private final long mMinIntervalNanos;
+    private final long mMinBytes;
+    private final int mMinPerMille;
+
+    //Guarded by this.
+    private HttpProgress.Phase mLastPhase;
+    private int mLastCode;
+    private long mLastBytes;
+    private long mLastNanos;
+    private int mLastPerMille;
+    private long mSeenBytes;
+
+    /**
+     * @param reporter          the reporter to receive the passed progress
+     * @param minIntervalMillis the minimum interval between the passed progress, or 0 to disable
+     * @param minBytes          the minimum bytes proceeded between the passed progress, or 0 to disable
+     * @param minPerMille       the minimum change of {@link HttpProgress#getCurrent()} (1/{@link HttpProgress#MAX}),
+     *                          or 0 to disable. Ignored when the content length is unknown.
+     */
+    public HttpProgressThrottle(@NonNull final ProgressReporter<HttpProgress> reporter, final long minIntervalMillis, final long minBytes, final int minPerMille) {
+        if (minIntervalMillis < 0 || minBytes < 0 || minPerMille < 0) {
+            throw new IllegalArgumentException("Thresholds must not be negative.");
+        }
+        mReporter = reporter;
+        mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        mMinBytes = minBytes;
+        mMinPerMille = minPerMille;
+    }
+
+    @Override
+    public void report(final HttpProgress progress) {
+        if (shouldReport(progress.getPhase(), progress.getCode(), progress.getBytesProceeded(), progress.getContentLength())) {
+            mReporter.report(progress);
+        }
+    }
+
+    /**
+     * Same as {@link #report(HttpProgress)}, but makes the progress only when it is passed.
+     */
+    void report(final HttpProgress.Phase phase, final int code, final long bytesProceeded, final long contentLength) {
+        if (shouldReport(phase, code, bytesProceeded, contentLength)) {
+            mReporter.report(new HttpProgress(phase, code, bytesProceeded, contentLength));
+        }
+    }
+
+    private synchronized boolean shouldReport(final HttpProgress.Phase phase, final int code, final long bytesProceeded, final long contentLength) {
+        final long seenBytes = mSeenBytes;
+        mSeenBytes = bytesProceeded;
+
+        if (phase != mLastPhase || code != mLastCode || bytesProceeded < mLastBytes) {
+            //New phase or new transfer.
+            return pass(phase, code, bytesProceeded, contentLength);
+        }
+        if (bytesProceeded == mLastBytes) {
+            return false;
+        }
+        if (contentLength > 0 && bytesProceeded >= contentLength) {
+            //Completed.
+            return pass(phase, code, bytesProceeded, contentLength);
+        }
+        if (bytesProceeded == seenBytes) {
+            //Nothing proceeded since the last report, so the stream is at the end. Flushes the dropped progress.
+            return pass(phase, code, bytesProceeded, contentLength);
+        }
+
+        if (bytesProceeded - mLastBytes < mMinBytes) {
+            return false;
+        }
+        if (mMinPerMille > 0 && contentLength > 0
+                && HttpProgress.getCurrent(bytesProceeded, contentLength) - mLastPerMille < mMinPerMille) {
+            return false;
+        }
+        if (mMinIntervalNanos > 0 && System.nanoTime() - mLastNanos < mMinIntervalNanos) {
+            return false;
+        }
+        return pass(phase, code, bytesProceeded, contentLength);
+    }
+
+    private boolean pass(final HttpProgress.Phase phase, final int code, final long bytesProceeded, final long contentLength) {
+        mLastPhase = phase;
+        mLastCode = code;
+        mLastBytes = bytesProceeded;
+        mLastPerMille = HttpProgress.getCurrent(bytesProceeded, contentLength);
+        if (mMinIntervalNanos > 0) {
+            mLastNanos = System.nanoTime();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Request;
+
+/**
+ * LRU cache of the filtered responses, revalidated with the server on every call.
+ * <p>
+ * The cached GET request is sent with If-None-Match or If-Modified-Since,
+ * and the cached response is returned on 304 without reading and filtering the body.
+ * Only the {@link ResponseUnit} with ETag or Last-Modified is cached.
+ * The cached response is shared by the calls, so do not modify it.
+ * <p>
+ * Use a cache for each filter, because the calls of the same request share the filtered response.
+ */
+public final class HttpResponseCache<TResponse> {
+
+    private final int mMaxEntries;
+    @NonNull
+    private final String[] mKeyHeaderNames;
+    //Guarded by this.
+    private final LinkedHashMap<String, Entry<TResponse>> mEntries;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxEntries     the maximum number of the cached responses
+     * @param keyHeaderNames the names of the request headers that tell the requests apart, such as Authorization
+     */
+    public HttpResponseCache(final int maxEntries, @NonNull final String... keyHeaderNames) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive.");
+        }
+        mMaxEntries = maxEntries;
+        mKeyHeaderNames = keyHeaderNames.clone();
+        mEntries = new LinkedHashMap<String, HttpResponseCache.Entry<TResponse>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HttpResponseCache.Entry<TResponse>> eldest) {
+                if (size() > mMaxEntries) {
+                    ++mEvictionCount;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the number of the calls answered by the cached response
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of the calls that read the body
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of the responses dropped to make room
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void evictAll() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return the lookup of the request, or null if the request is not cached
+     */
+    @Nullable
+    Lookup<TResponse> lookup(@NonNull final Request request) {
+        if (!"GET".equals(request.method())) {
+            return null;
+        }
+        final String key = HttpUtils.keyOf(request, mKeyHeaderNames);
+        final Entry<TResponse> entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+        }
+        return new Lookup<>(this, key, entry);
+    }
+
+    synchronized void hit() {
+        ++mHitCount;
+    }
+
+    void miss(@NonNull final String key, @Nullable final TResponse response) {
+        final Entry<TResponse> entry = newEntry(response);
+        synchronized (this) {
+            ++mMissCount;
+            if (entry != null) {
+                mEntries.put(key, entry);
+            } else {
+                mEntries.remove(key);
+            }
+        }
+    }
+
+    @Nullable
+    private static <TResponse> Entry<TResponse> newEntry(@Nullable final TResponse response) {
+        if (!(response instanceof ResponseUnit)) {
+            return null;
+        }
+        final ResponseUnit unit = (ResponseUnit) response;
+        final Headers headers = unit.getHeaders();
+        if (unit.getCode() != 200 || headers == null || CacheControl.parse(headers).noStore()) {
+            return null;
+        }
+        final String etag = headers.get("ETag");
+        final String lastModified = headers.get("Last-Modified");
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new Entry<>(response, etag, lastModified);
+    }
+
+    private static final class Entry<TResponse> {
+        @NonNull
+        final TResponse mResponse;
+        @Nullable
+        final String mETag;
+        @Nullable
+        final String mLastModified;
+
+        Entry(@NonNull final TResponse response, @Nullable final String etag, @Nullable final String lastModified) {
+            mResponse = response;
+            mETag = etag;
+            mLastModified = lastModified;
+        }
+    }
+
+    static final class Lookup<TResponse> {
+        @NonNull
+        private final HttpResponseCache<TResponse> mCache;
+        @NonNull
+        private final String mKey;
+        @Nullable
+        private final Entry<TResponse> mEntry;
+
+        Lookup(@NonNull final HttpResponseCache<TResponse> cache, @NonNull final String key, @Nullable final Entry<TResponse> entry) {
+            mCache = cache;
+            mKey = key;
+            mEntry = entry;
+        }
+
+        /**
+         * @return the request with the validators of the cached response, or the request itself if nothing is cached
+         */
+        @NonNull
+        Request toConditionalRequest(@NonNull final Request request) {
+            if (mEntry == null) {
+                return request;
+            }
+            final Request.Builder builder = request.newBuilder();
+            if (mEntry.mETag != null) {
+                builder.header("If-None-Match", mEntry.mETag);
+            }
+            if (mEntry.mLastModified != null) {
+                builder.header("If-Modified-Since", mEntry.mLastModified);
+            }
+            return builder.build();
+        }
+
+        /**
+         * @return the cached response if the code tells it is not modified, or null
+         */
+        @Nullable
+        TResponse getNotModified(final int code) {
+            if (code != 304 || mEntry == null) {
+                return null;
+            }
+            mCache.hit();
+            return mEntry.mResponse;
+        }
+
+        void onFiltered(@Nullable final TResponse response) {
+            mCache.miss(mKey, response);
+        }
+    }
+}
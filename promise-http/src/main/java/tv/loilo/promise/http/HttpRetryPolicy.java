@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Headers;
+import tv.loilo.promise.PromiseTimer;
+
+/**
+ * Policy of {@link HttpTaskAs#retry(HttpRetryPolicy)}.
+ * <p>
+ * The call is retried on the I/O failure and on the status codes of {@link HttpUtils#canRetry(int)} and 429,
+ * up to the max attempts. Only the idempotent methods are retried unless allowed.
+ * The delay grows exponentially with the random jitter, or follows the Retry-After header.
+ * The response that asks to wait longer than the max Retry-After is not retried.
+ */
+public final class HttpRetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 30 * 1000;
+    public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 60 * 1000;
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final Random mRandom = new Random();
+
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long mInitialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+    private long mMaxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+    private double mMultiplier = 2.0;
+    private double mJitter = 0.5;
+    private boolean mRespectsRetryAfter = true;
+    private long mMaxRetryAfterMillis = DEFAULT_MAX_RETRY_AFTER_MILLIS;
+    private boolean mRetriesNonIdempotent;
+
+    /**
+     * @param maxAttempts the maximum number of the calls including the first one
+     */
+    public HttpRetryPolicy setMaxAttempts(final int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive.");
+        }
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param initialMillis the delay before the second attempt
+     * @param maxMillis     the upper limit of the delay
+     * @param multiplier    the growth of the delay for each attempt
+     */
+    public HttpRetryPolicy setBackoff(final long initialMillis, final long maxMillis, final double multiplier) {
+        if (initialMillis < 0 || maxMillis < initialMillis || multiplier < 1.0) {
+            throw new IllegalArgumentException("Invalid backoff.");
+        }
+        mInitialBackoffMillis = initialMillis;
+        mMaxBackoffMillis = maxMillis;
+        mMultiplier = multiplier;
+        return this;
+    }
+
+    /**
+     * @param jitter the ratio of the delay cut at random, from 0 (no jitter) to 1 (full jitter)
+     */
+    public HttpRetryPolicy setJitter(final double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be in [0, 1].");
+        }
+        mJitter = jitter;
+        return this;
+    }
+
+    /**
+     * @param respectsRetryAfter {@code true} to wait as the Retry-After header says
+     * @param maxRetryAfterMillis the longest wait to accept
+     */
+    public HttpRetryPolicy setRetryAfter(final boolean respectsRetryAfter, final long maxRetryAfterMillis) {
+        mRespectsRetryAfter = respectsRetryAfter;
+        mMaxRetryAfterMillis = maxRetryAfterMillis;
+        return this;
+    }
+
+    /**
+     * @param retriesNonIdempotent {@code true} to retry POST and PATCH too
+     */
+    public HttpRetryPolicy setRetriesNonIdempotent(final boolean retriesNonIdempotent) {
+        mRetriesNonIdempotent = retriesNonIdempotent;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    public static boolean isIdempotent(@NonNull final String method) {
+        return "GET".equals(method)
+                || "HEAD".equals(method)
+                || "PUT".equals(method)
+                || "DELETE".equals(method)
+                || "OPTIONS".equals(method)
+                || "TRACE".equals(method);
+    }
+
+    /**
+     * @param attempts the number of the calls made
+     * @return {@code true} if the call can be retried
+     */
+    boolean canRetry(final int attempts, @NonNull final String method) {
+        return attempts < mMaxAttempts && (mRetriesNonIdempotent || isIdempotent(method));
+    }
+
+    static boolean canRetry(final int code) {
+        return HttpUtils.canRetry(code) || code == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @param attempts the number of the calls made
+     * @param headers  the headers of the response to retry, or null on the I/O failure
+     * @return the delay before the next attempt, or -1 not to retry
+     */
+    long getDelayMillis(final int attempts, @Nullable final Headers headers) {
+        if (mRespectsRetryAfter && headers != null) {
+            final long retryAfter = getRetryAfterMillis(headers);
+            if (retryAfter >= 0) {
+                return retryAfter <= mMaxRetryAfterMillis ? retryAfter : -1;
+            }
+        }
+
+        final double backoff = Math.min(mMaxBackoffMillis, mInitialBackoffMillis * Math.pow(mMultiplier, attempts - 1));
+        final double jitter;
+        synchronized (mRandom) {
+            jitter = mJitter * mRandom.nextDouble();
+        }
+        return (long) (backoff * (1.0 - jitter));
+    }
+
+    private static long getRetryAfterMillis(@NonNull final Headers headers) {
+        final String value = headers.get("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+        } catch (final NumberFormatException e) {
+            final Date date = headers.getDate("Retry-After");
+            if (date == null) {
+                return -1;
+            }
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    //Waits for the retries without holding the threads.
+    static ScheduledFuture<?> schedule(@NonNull final Runnable runnable, final long delayMillis) {
+        return PromiseTimer.schedule(runnable, delayMillis);
+    }
+}
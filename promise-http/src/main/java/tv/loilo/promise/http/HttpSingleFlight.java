@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import okhttp3.Request;
+import tv.loilo.promise.Cancellable;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Deferred;
+import tv.loilo.promise.Result;
+import tv.loilo.promise.Results;
+
+/**
+ * Group of the tasks that share one call for the same request in flight.
+ * <p>
+ * The GET and HEAD requests with the same method, URL and key headers are the same.
+ * The first task of the request makes the call with its filter, reporter and retry policy,
+ * and the tasks joining while it is in flight receive the same result object, so do not modify it.
+ * The call is canceled only when all of the tasks are canceled.
+ * <p>
+ * Use a group for each filter, because the tasks in the group share the filtered result.
+ */
+public final class HttpSingleFlight<TResponse> {
+
+    @NonNull
+    private final String[] mKeyHeaderNames;
+    //Guarded by this.
+    private final HashMap<String, Flight> mFlights = new HashMap<>();
+
+    /**
+     * @param keyHeaderNames the names of the request headers that tell the requests apart, such as Authorization
+     */
+    public HttpSingleFlight(@NonNull final String... keyHeaderNames) {
+        mKeyHeaderNames = keyHeaderNames.clone();
+    }
+
+    /**
+     * @return the number of the calls in flight
+     */
+    public synchronized int getFlightCount() {
+        return mFlights.size();
+    }
+
+    @Nullable
+    private String keyOf(@NonNull final Request request) {
+        final String method = request.method();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        return HttpUtils.keyOf(request, mKeyHeaderNames);
+    }
+
+    /**
+     * @return the deferred result shared with the other tasks, or null if the request can not be shared
+     */
+    @Nullable
+    Deferred<TResponse> join(@NonNull final HttpTaskAs<TResponse> task) {
+        final String key = keyOf(task.getRequest());
+        if (key == null) {
+            return null;
+        }
+
+        final Flight flight;
+        final Waiter waiter;
+        final boolean isNew;
+        synchronized (this) {
+            Flight current = mFlights.get(key);
+            isNew = current == null;
+            if (isNew) {
+                current = new Flight(key);
+                mFlights.put(key, current);
+            }
+            flight = current;
+            waiter = new Waiter(flight);
+            flight.mWaiters.add(waiter);
+        }
+
+        if (isNew) {
+            final Cancellable canceller;
+            try {
+                canceller = task.start(flight);
+            } catch (final RuntimeException e) {
+                //Completes the waiters and unregisters the flight, so the later tasks do not join the flight without the call.
+                flight.receive(Results.<TResponse>fail(e));
+                throw e;
+            } catch (final Error e) {
+                flight.receive(Results.<TResponse>fail(e));
+                throw e;
+            }
+            flight.setCanceller(canceller);
+        }
+        return waiter.mDeferrable;
+    }
+
+    private void leave(@NonNull final Waiter waiter) {
+        final Flight flight = waiter.mFlight;
+        final boolean isLast;
+        synchronized (this) {
+            if (flight.mIsCompleted || !flight.mWaiters.remove(waiter)) {
+                return;
+            }
+            isLast = flight.mWaiters.isEmpty();
+            if (isLast) {
+                flight.mIsAbandoned = true;
+                if (mFlights.get(flight.mKey) == flight) {
+                    mFlights.remove(flight.mKey);
+                }
+            }
+        }
+
+        waiter.mDeferrable.setCanceled();
+        if (isLast) {
+            flight.cancel();
+        }
+    }
+
+    private final class Flight implements HttpTaskAs.ResultReceiver<TResponse> {
+        @NonNull
+        final String mKey;
+        //Guarded by HttpSingleFlight.this.
+        final List<Waiter> mWaiters = new ArrayList<>();
+        boolean mIsCompleted;
+        volatile boolean mIsAbandoned;
+        private volatile Cancellable mCanceller;
+
+        Flight(@NonNull final String key) {
+            mKey = key;
+        }
+
+        void setCanceller(@NonNull final Cancellable canceller) {
+            mCanceller = canceller;
+            //All of the waiters may have left before the canceller is set.
+            if (mIsAbandoned) {
+                canceller.cancel();
+            }
+        }
+
+        void cancel() {
+            final Cancellable canceller = mCanceller;
+            if (canceller != null) {
+                canceller.cancel();
+            }
+        }
+
+        @Override
+        public void receive(@NonNull final Result<TResponse> result) {
+            final List<Waiter> waiters;
+            synchronized (HttpSingleFlight.this) {
+                mIsCompleted = true;
+                if (mFlights.get(mKey) == this) {
+                    mFlights.remove(mKey);
+                }
+                waiters = new ArrayList<>(mWaiters);
+                mWaiters.clear();
+            }
+
+            for (Waiter waiter : waiters) {
+                waiter.mDeferrable.setResult(result);
+            }
+        }
+    }
+
+    private final class Waiter implements Cancellable {
+        @NonNull
+        final Flight mFlight;
+        final Deferrable<TResponse> mDeferrable = new Deferrable<>();
+
+        Waiter(@NonNull final Flight flight) {
+            mFlight = flight;
+            mDeferrable.setCancellable(this);
+        }
+
+        @Override
+        public void cancel() {
+            leave(this);
+        }
+    }
+}
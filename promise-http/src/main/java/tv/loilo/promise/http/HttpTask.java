@@ -17,14 +17,24 @@
 package tv.loilo.promise.http;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 
 import java.io.File;
+import java.util.concurrent.BlockingQueue;
 
 import okhttp3.Call;
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
 
 public final class HttpTask {
     private Call mCall;
+    @Nullable
+    private OkHttpClient mClient;
     private OnResponseListener mOnResponseListener;
     private OnFailureListener mOnFailureListener;
 
@@ -32,6 +42,21 @@ public final class HttpTask {
         mCall = call;
     }
 
+    /**
+     * Calls the request with the client.
+     */
+    public HttpTask(@NonNull final OkHttpClient client, @NonNull final Request request) {
+        mCall = client.newCall(request);
+        mClient = client;
+    }
+
+    /**
+     * Calls the request with the shared client. See {@link HttpClients#getDefault()}.
+     */
+    public HttpTask(@NonNull final Request request) {
+        this(HttpClients.getDefault(), request);
+    }
+
     public HttpTask setOnResponseListener(OnResponseListener listener) {
         mOnResponseListener = listener;
         return this;
@@ -43,7 +68,7 @@ public final class HttpTask {
     }
 
     public <TValue> HttpTaskAs<TValue> filterBy(@NonNull final ResponseFilter<TValue> filter) {
-        return new HttpTaskAs<>(mCall, filter, mOnFailureListener);
+        return new HttpTaskAs<>(mCall, filter, mOnFailureListener).setClient(mClient);
     }
 
     public <TValue extends ResponseUnit> HttpTaskAs<TValue> asResponseUnitBy(@NonNull final ResponseFilter<TValue> filter) {
@@ -86,10 +111,68 @@ public final class HttpTask {
         return asJsonArray(false);
     }
 
+    /**
+     * Binds the JSON body to the object without building the JsonElement tree. See {@link ResponseJsonBinder}.
+     */
+    public <TBody> HttpTaskAs<ResponseAs<TBody>> as(@NonNull final Gson gson, @NonNull final TypeToken<TBody> type, final boolean allowErrorCodeIfPossible) {
+        return asResponseUnitBy(new ResponseJsonBinder<>(gson, type, allowErrorCodeIfPossible));
+    }
+
+    public <TBody> HttpTaskAs<ResponseAs<TBody>> as(@NonNull final TypeToken<TBody> type, final boolean allowErrorCodeIfPossible) {
+        return asResponseUnitBy(new ResponseJsonBinder<>(type, allowErrorCodeIfPossible));
+    }
+
+    public <TBody> HttpTaskAs<ResponseAs<TBody>> as(@NonNull final TypeToken<TBody> type) {
+        return as(type, false);
+    }
+
+    public <TBody> HttpTaskAs<ResponseAs<TBody>> as(@NonNull final Class<TBody> type) {
+        return as(TypeToken.get(type), false);
+    }
+
+    /**
+     * Hands the elements of the JSON array to the callback one by one. See {@link ResponseJsonArrayStreamer}.
+     */
+    public <TElement> HttpTaskAs<ResponseJsonArrayStream> streamJsonArray(@NonNull final TypeAdapter<TElement> adapter, @NonNull final JsonArrayCallback<? super TElement> callback) {
+        return asResponseUnitBy(new ResponseJsonArrayStreamer<>(adapter, callback, false));
+    }
+
+    /**
+     * Puts the elements of the JSON array into the bounded queue one by one. See {@link ResponseJsonArrayStreamer}.
+     */
+    public <TElement> HttpTaskAs<ResponseJsonArrayStream> streamJsonArray(@NonNull final TypeAdapter<TElement> adapter, @NonNull final BlockingQueue<? super TElement> queue) {
+        return asResponseUnitBy(new ResponseJsonArrayStreamer<>(adapter, queue, false));
+    }
+
     public HttpTaskAs<ResponseFile> writeTo(final File output) {
         return asResponseUnitBy(new ResponseFileWriter(output));
     }
 
+    /**
+     * @param usesFileChannel {@code true} to write through FileChannel, preallocating the file and verifying the length
+     * @param syncsOnComplete {@code true} to sync the file to the storage before completing
+     */
+    public HttpTaskAs<ResponseFile> writeTo(final File output, final boolean usesFileChannel, final boolean syncsOnComplete) {
+        return asResponseUnitBy(new ResponseFileWriter(output, usesFileChannel, syncsOnComplete));
+    }
+
+    /**
+     * Writes the response to the file with up to maxSegments parallel ranged requests, and resumes the interrupted download.
+     * See {@link SegmentedFileWriter}.
+     *
+     * @param client the client to send the ranged requests
+     */
+    public HttpTaskAs<ResponseFile> writeTo(final File output, @NonNull final OkHttpClient client, final int maxSegments) {
+        return asResponseUnitBy(new SegmentedFileWriter(client, output, maxSegments));
+    }
+
+    /**
+     * Same as {@link #writeTo(File, OkHttpClient, int)} with the client of this task, or the shared client.
+     */
+    public HttpTaskAs<ResponseFile> writeTo(final File output, final int maxSegments) {
+        return writeTo(output, mClient != null ? mClient : HttpClients.getDefault(), maxSegments);
+    }
+
     @Deprecated
     public HttpTaskAs<ResponseAs<MediaType>> writeToFile(final File output) {
         return asResponseUnitBy(new ResponseFileExporter(output));
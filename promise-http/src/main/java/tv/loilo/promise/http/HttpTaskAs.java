@@ -22,9 +22,14 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
 import okhttp3.Response;
 import tv.loilo.promise.Cancellable;
 import tv.loilo.promise.Deferrable;
@@ -32,6 +37,8 @@ import tv.loilo.promise.Deferred;
 import tv.loilo.promise.ProgressReporter;
 import tv.loilo.promise.Promise;
 import tv.loilo.promise.Promises;
+import tv.loilo.promise.Result;
+import tv.loilo.promise.Results;
 import tv.loilo.promise.WhenCallback;
 import tv.loilo.promise.WhenParams;
 
@@ -45,6 +52,14 @@ public final class HttpTaskAs<TResponse> {
     private OnFailureListener mOnFailureListener;
     @Nullable
     private ProgressReporter<HttpProgress> mReporter;
+    @Nullable
+    private HttpRetryPolicy mRetryPolicy;
+    @Nullable
+    private HttpSingleFlight<TResponse> mSingleFlight;
+    @Nullable
+    private HttpResponseCache<TResponse> mCache;
+    @Nullable
+    private OkHttpClient mClient;
 
     public HttpTaskAs(@NonNull final Call call, @NonNull final ResponseFilter<TResponse> filter, @Nullable OnFailureListener onFailureListener) {
         mCall = call;
@@ -57,73 +72,294 @@ public final class HttpTaskAs<TResponse> {
         return this;
     }
 
+    /**
+     * Reports the progress, dropping the progress reported too often.
+     * See {@link HttpProgressThrottle} for the thresholds.
+     *
+     * @param minIntervalMillis the minimum interval between the reports, or 0 to disable
+     * @param minBytes          the minimum bytes proceeded between the reports, or 0 to disable
+     * @param minPerMille       the minimum change of {@link HttpProgress#getCurrent()}, or 0 to disable
+     */
+    public HttpTaskAs<TResponse> progress(@Nullable final ProgressReporter<HttpProgress> reporter, final long minIntervalMillis, final long minBytes, final int minPerMille) {
+        mReporter = reporter != null ? new HttpProgressThrottle(reporter, minIntervalMillis, minBytes, minPerMille) : null;
+        return this;
+    }
+
+    /**
+     * Retries the call with the policy. Each attempt calls the clone of the call.
+     * The wait between the attempts holds no thread, and is canceled with the promise.
+     *
+     * @param policy the policy, or null not to retry
+     */
+    public HttpTaskAs<TResponse> retry(@Nullable final HttpRetryPolicy policy) {
+        mRetryPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Caches the result, and revalidates it with the server. See {@link HttpResponseCache}.
+     * Works only with the task made from the request such as {@link HttpTask#HttpTask(OkHttpClient, Request)},
+     * because the conditional request needs the client.
+     *
+     * @param cache the cache, or null not to cache
+     * @throws IllegalStateException if the task is made from the call
+     */
+    public HttpTaskAs<TResponse> cache(@Nullable final HttpResponseCache<TResponse> cache) {
+        if (cache != null && mClient == null) {
+            throw new IllegalStateException("The task made from the call can not be cached.");
+        }
+        mCache = cache;
+        return this;
+    }
+
+    HttpTaskAs<TResponse> setClient(@Nullable final OkHttpClient client) {
+        mClient = client;
+        return this;
+    }
+
+    /**
+     * Shares the call and its result with the other tasks of the same request in the group.
+     * See {@link HttpSingleFlight}.
+     *
+     * @param group the group, or null not to share
+     */
+    public HttpTaskAs<TResponse> singleFlight(@Nullable final HttpSingleFlight<TResponse> group) {
+        mSingleFlight = group;
+        return this;
+    }
+
     public Promise<TResponse> promise() {
         return Promises.when(new WhenCallback<TResponse>() {
             @Override
             public Deferred<TResponse> run(WhenParams params) throws Exception {
-                final Deferrable<TResponse> deferrable = new Deferrable<>();
-                deferrable.setCancellable(new Cancellable() {
-                    @Override
-                    public void cancel() {
-                        mCall.cancel();
-                    }
-                });
-                mCall.enqueue(new Callback() {
-                    @Override
-                    public void onFailure(Call call, IOException e) {
-                        if (call.isCanceled()) {
-                            deferrable.setCanceled();
-                        } else {
-                            if(mOnFailureListener != null){
-                                try {
-                                    mOnFailureListener.onFailure(e);
-                                } catch (final Throwable t){
-                                    Log.w("loilo-promise-http", "OnFailureListener: Error occurred.", t);
-                                }
-                            }
-                            deferrable.setFailed(e);
-                        }
+                if (mSingleFlight != null) {
+                    final Deferred<TResponse> shared = mSingleFlight.join(HttpTaskAs.this);
+                    if (shared != null) {
+                        return shared;
                     }
+                }
 
+                final Deferrable<TResponse> deferrable = new Deferrable<>();
+                deferrable.setCancellable(start(new ResultReceiver<TResponse>() {
                     @Override
-                    public void onResponse(Call call, Response response) throws IOException {
-                        TResponse result;
-                        try {
-                            Response progressResponse = null;
-                            try {
-                                progressResponse = response
-                                        .newBuilder()
-                                        .body(new ProgressResponseBody(call, response.code(), response.body(), mReporter))
-                                        .build();
-                                result = mFilter.pass(progressResponse);
-                            } finally {
-                                if (progressResponse != null) {
-                                    progressResponse.body().close();
-                                } else {
-                                    response.body().close();
-                                }
-                            }
-                        } catch (final CancellationException e) {
-                            deferrable.setCanceled();
-                            return;
-                        } catch (final Throwable e) {
-                            if(mOnFailureListener != null){
-                                try {
-                                    mOnFailureListener.onFailure(e);
-                                } catch (final Throwable t){
-                                    Log.w("loilo-promise-http", "OnFailureListener: Error occurred.", t);
-                                }
-                            }
-                            deferrable.setFailed(e);
-                            return;
-                        }
-                        deferrable.setSucceeded(result);
+                    public void receive(@NonNull Result<TResponse> result) {
+                        deferrable.setResult(result);
                     }
-                });
-
+                }));
                 return deferrable;
             }
         });
     }
 
+    @NonNull
+    Request getRequest() {
+        return mCall.request();
+    }
+
+    /**
+     * Starts the call.
+     *
+     * @param receiver receives the result once
+     * @return the canceller of the call
+     */
+    @NonNull
+    Cancellable start(@NonNull final ResultReceiver<TResponse> receiver) {
+        Call call = mCall;
+        HttpResponseCache.Lookup<TResponse> lookup = null;
+        if (mCache != null && mClient != null) {
+            lookup = mCache.lookup(call.request());
+            if (lookup != null) {
+                final Request request = call.request();
+                final Request conditionalRequest = lookup.toConditionalRequest(request);
+                if (conditionalRequest != request) {
+                    call = mClient.newCall(conditionalRequest);
+                }
+            }
+        }
+
+        final Attempts attempts = new Attempts(receiver, mRetryPolicy, mReporter, lookup);
+        attempts.enqueue(call);
+        return attempts;
+    }
+
+    private void notifyFailure(@NonNull final Throwable e) {
+        if (mOnFailureListener != null) {
+            try {
+                mOnFailureListener.onFailure(e);
+            } catch (final Throwable t) {
+                Log.w("loilo-promise-http", "OnFailureListener: Error occurred.", t);
+            }
+        }
+    }
+
+    private final class Attempts implements Callback, Cancellable {
+        @NonNull
+        private final ResultReceiver<TResponse> mReceiver;
+        @Nullable
+        private final HttpRetryPolicy mPolicy;
+        @Nullable
+        private final ProgressReporter<HttpProgress> mAttemptReporter;
+        @Nullable
+        private final HttpResponseCache.Lookup<TResponse> mLookup;
+        //Updated only by the callback of the current attempt.
+        private int mCount;
+        private volatile Call mCurrentCall;
+        private volatile Retry mRetry;
+        private volatile boolean mIsCanceled;
+
+        Attempts(@NonNull final ResultReceiver<TResponse> receiver, @Nullable final HttpRetryPolicy policy, @Nullable final ProgressReporter<HttpProgress> reporter,
+                 @Nullable final HttpResponseCache.Lookup<TResponse> lookup) {
+            mReceiver = receiver;
+            mLookup = lookup;
+            mPolicy = policy;
+            mAttemptReporter = reporter;
+        }
+
+        void enqueue(@NonNull final Call call) {
+            ++mCount;
+            mCurrentCall = call;
+            //The cancel may have missed this call.
+            if (mIsCanceled) {
+                call.cancel();
+            }
+            call.enqueue(this);
+        }
+
+        @Override
+        public void cancel() {
+            mIsCanceled = true;
+            final Call call = mCurrentCall;
+            if (call != null) {
+                call.cancel();
+            }
+            final Retry retry = mRetry;
+            if (retry != null) {
+                retry.cancel();
+            }
+        }
+
+        private boolean scheduleRetry(@NonNull final Call call, @Nullable final Headers headers) {
+            if (mPolicy == null || !mPolicy.canRetry(mCount, call.request().method())) {
+                return false;
+            }
+            final long delayMillis = mPolicy.getDelayMillis(mCount, headers);
+            if (delayMillis < 0) {
+                return false;
+            }
+
+            final Retry retry = new Retry(call);
+            mRetry = retry;
+            retry.setFuture(HttpRetryPolicy.schedule(retry, delayMillis));
+            //The cancel may have missed this retry.
+            if (mIsCanceled) {
+                retry.cancel();
+            }
+            return true;
+        }
+
+        /**
+         * The retry waiting for the delay. Only one of the timer and the cancel claims it,
+         * because the future of the running timer can still be canceled and would deliver the result twice.
+         */
+        private final class Retry implements Runnable {
+            @NonNull
+            private final Call mCall;
+            private final AtomicBoolean mIsClaimed = new AtomicBoolean();
+            private volatile ScheduledFuture<?> mFuture;
+
+            Retry(@NonNull final Call call) {
+                mCall = call;
+            }
+
+            void setFuture(@NonNull final ScheduledFuture<?> future) {
+                mFuture = future;
+            }
+
+            @Override
+            public void run() {
+                if (!mIsClaimed.compareAndSet(false, true)) {
+                    return;
+                }
+                if (mIsCanceled) {
+                    mReceiver.receive(Results.<TResponse>cancel());
+                    return;
+                }
+                enqueue(mCall.clone());
+            }
+
+            void cancel() {
+                if (!mIsClaimed.compareAndSet(false, true)) {
+                    return;
+                }
+                final ScheduledFuture<?> future = mFuture;
+                if (future != null) {
+                    future.cancel(false);
+                }
+                mReceiver.receive(Results.<TResponse>cancel());
+            }
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            if (call.isCanceled()) {
+                mReceiver.receive(Results.<TResponse>cancel());
+                return;
+            }
+            if (scheduleRetry(call, null)) {
+                return;
+            }
+            notifyFailure(e);
+            mReceiver.receive(Results.<TResponse>fail(e));
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            if (mLookup != null) {
+                final TResponse notModified = mLookup.getNotModified(response.code());
+                if (notModified != null) {
+                    response.body().close();
+                    mReceiver.receive(Results.success(notModified));
+                    return;
+                }
+            }
+
+            if (HttpRetryPolicy.canRetry(response.code()) && scheduleRetry(call, response.headers())) {
+                response.body().close();
+                return;
+            }
+
+            TResponse result;
+            try {
+                Response progressResponse = null;
+                try {
+                    progressResponse = response
+                            .newBuilder()
+                            .body(new ProgressResponseBody(call, response.code(), response.body(), mAttemptReporter))
+                            .build();
+                    result = mFilter.pass(progressResponse);
+                } finally {
+                    if (progressResponse != null) {
+                        progressResponse.body().close();
+                    } else {
+                        response.body().close();
+                    }
+                }
+            } catch (final CancellationException e) {
+                mReceiver.receive(Results.<TResponse>cancel());
+                return;
+            } catch (final Throwable e) {
+                notifyFailure(e);
+                mReceiver.receive(Results.<TResponse>fail(e));
+                return;
+            }
+            if (mLookup != null) {
+                mLookup.onFiltered(result);
+            }
+            mReceiver.receive(Results.success(result));
+        }
+    }
+
+    interface ResultReceiver<T> {
+        void receive(@NonNull Result<T> result);
+    }
 }
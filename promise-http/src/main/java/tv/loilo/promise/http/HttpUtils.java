@@ -22,6 +22,7 @@ import android.webkit.MimeTypeMap;
 
 import okhttp3.Headers;
 import okhttp3.MediaType;
+import okhttp3.Request;
 import okhttp3.Response;
 
 public final class HttpUtils {
@@ -40,6 +41,19 @@ public final class HttpUtils {
                 code == 509; //Bandwidth Limit Exceeded
     }
 
+    /**
+     * @return the key of the request made of the method, URL and the values of the headers
+     */
+    @NonNull
+    static String keyOf(@NonNull final Request request, @NonNull final String[] headerNames) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(request.method()).append(' ').append(request.url());
+        for (String name : headerNames) {
+            sb.append('\n').append(name).append(": ").append(request.headers(name));
+        }
+        return sb.toString();
+    }
+
     public static void ensureSuccessStatusCode(final int code) throws HttpResponseException {
         if (isSuccessful(code)) {
             return;
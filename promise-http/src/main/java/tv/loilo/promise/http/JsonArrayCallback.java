@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+/**
+ * Receives the elements of the JSON array one by one, as soon as each one is parsed.
+ * The next element is not read until the callback returns, so a slow callback slows down the download.
+ */
+public interface JsonArrayCallback<TElement> {
+    void onElement(int index, TElement element) throws Exception;
+}
@@ -20,6 +20,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
@@ -28,6 +29,7 @@ import okio.BufferedSink;
 import okio.ForwardingSink;
 import okio.Okio;
 import okio.Sink;
+import tv.loilo.promise.CancelToken;
 import tv.loilo.promise.ProgressReporter;
 
 public final class ProgressRequestBody extends RequestBody {
@@ -36,14 +38,26 @@ public final class ProgressRequestBody extends RequestBody {
     private final RequestBody mBody;
     @Nullable
     private final ProgressReporter<HttpProgress> mReporter;
+    @Nullable
+    private final CancelToken mCancelToken;
 
-    public ProgressRequestBody(@NonNull final RequestBody body, @Nullable final ProgressReporter<HttpProgress> reporter) {
+    /**
+     * @param cancelToken the token checked on every write, or null. The canceled write fails with InterruptedIOException.
+     *                    The body does not know its call, so {@code Call.isCanceled()} is not checked,
+     *                    but canceling the call closes its stream and fails the write anyway.
+     */
+    public ProgressRequestBody(@NonNull final RequestBody body, @Nullable final ProgressReporter<HttpProgress> reporter, @Nullable final CancelToken cancelToken) {
         mBody = body;
         mReporter = reporter;
+        mCancelToken = cancelToken;
+    }
+
+    public ProgressRequestBody(@NonNull final RequestBody body, @Nullable final ProgressReporter<HttpProgress> reporter) {
+        this(body, reporter, null);
     }
 
     public ProgressRequestBody(@NonNull final RequestBody body) {
-        this(body, null);
+        this(body, null, null);
     }
 
     public RequestBody getOriginalBody() {
@@ -62,25 +76,48 @@ public final class ProgressRequestBody extends RequestBody {
 
     @Override
     public void writeTo(BufferedSink sink) throws IOException {
-        //TODO もしかするとここでキャンセル処理をしないといけない
-        final BufferedSink bufferedSink = Okio.buffer(wrap(sink));
+        final ProgressSink progressSink = new ProgressSink(sink, mBody.contentLength());
+        //The wrapped body needs a BufferedSink. The buffer moves the whole segments to the sink without copying the bytes,
+        //and it is made once for each write of the body, not for each chunk.
+        final BufferedSink bufferedSink = Okio.buffer(progressSink);
         mBody.writeTo(bufferedSink);
         bufferedSink.flush();
+        if (mReporter instanceof HttpProgressThrottle) {
+            //Flushes the dropped progress, because the sink does not know the end of the body.
+            ((HttpProgressThrottle) mReporter).report(HttpProgress.Phase.REQUEST, 0, progressSink.mTotalBytes, progressSink.mContentLength);
+        }
     }
 
-    @NonNull
-    private Sink wrap(@NonNull final Sink sink) {
-        return new ForwardingSink(sink) {
-            private long mTotalBytes = 0L;
-
-            @Override
-            public void write(Buffer source, long byteCount) throws IOException {
-                super.write(source, byteCount);
-                mTotalBytes += byteCount;
-                if (mReporter != null) {
-                    mReporter.report(new HttpProgress(HttpProgress.Phase.REQUEST, 0, mTotalBytes, mBody.contentLength()));
-                }
-            }
-        };
+    static void ensureNotCanceled(@Nullable final CancelToken cancelToken) throws InterruptedIOException {
+        if (cancelToken != null && cancelToken.isCanceled()) {
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+
+    static void report(@Nullable final ProgressReporter<HttpProgress> reporter, final long totalBytes, final long contentLength) {
+        if (reporter instanceof HttpProgressThrottle) {
+            ((HttpProgressThrottle) reporter).report(HttpProgress.Phase.REQUEST, 0, totalBytes, contentLength);
+        } else if (reporter != null) {
+            reporter.report(new HttpProgress(HttpProgress.Phase.REQUEST, 0, totalBytes, contentLength));
+        }
+    }
+
+    private final class ProgressSink extends ForwardingSink {
+        //The length is asked once for each write of the body.
+        private final long mContentLength;
+        private long mTotalBytes;
+
+        ProgressSink(@NonNull final Sink sink, final long contentLength) {
+            super(sink);
+            mContentLength = contentLength;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            ensureNotCanceled(mCancelToken);
+            super.write(source, byteCount);
+            mTotalBytes += byteCount;
+            report(mReporter, mTotalBytes, mContentLength);
+        }
     }
 }
@@ -55,6 +55,21 @@ public final class ProgressResponseBody extends ResponseBody {
         this(call, code, body, null);
     }
 
+    @NonNull
+    public ResponseBody getOriginalBody() {
+        return mBody;
+    }
+
+    @NonNull
+    Call getCall() {
+        return mCall;
+    }
+
+    @Nullable
+    ProgressReporter<HttpProgress> getReporter() {
+        return mReporter;
+    }
+
     @Override
     public MediaType contentType() {
         return mBody.contentType();
@@ -87,7 +102,9 @@ public final class ProgressResponseBody extends ResponseBody {
                 if (bytes > 0) {
                     mTotalBytes += bytes;
                 }
-                if (mReporter != null) {
+                if (mReporter instanceof HttpProgressThrottle) {
+                    ((HttpProgressThrottle) mReporter).report(HttpProgress.Phase.RESPONSE, mCode, mTotalBytes, mBody.contentLength());
+                } else if (mReporter != null) {
                     mReporter.report(new HttpProgress(HttpProgress.Phase.RESPONSE, mCode, mTotalBytes, mBody.contentLength()));
                 }
                 return bytes;
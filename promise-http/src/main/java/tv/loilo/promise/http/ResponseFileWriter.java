@@ -19,6 +19,11 @@ package tv.loilo.promise.http;
 import android.support.annotation.NonNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Date;
 
 import okhttp3.MediaType;
@@ -30,10 +35,27 @@ import okio.Okio;
 @SuppressWarnings("TryFinallyCanBeTryWithResources")
 public class ResponseFileWriter implements ResponseFilter<ResponseFile> {
 
+    private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
     private final File mOutput;
+    private final boolean mUsesFileChannel;
+    private final boolean mSyncsOnComplete;
 
     public ResponseFileWriter(@NonNull final File output) {
+        this(output, false, false);
+    }
+
+    /**
+     * @param usesFileChannel {@code true} to write through FileChannel in the large chunks.
+     *                        The file is preallocated from Content-Length, and the written length is verified against it.
+     *                        Okio reads only into a byte array, so each chunk is still copied from Okio into the array
+     *                        and then into the native buffer of the channel. The gain is from fewer and larger writes.
+     * @param syncsOnComplete {@code true} to sync the file to the storage before completing. Works with the FileChannel only.
+     */
+    public ResponseFileWriter(@NonNull final File output, final boolean usesFileChannel, final boolean syncsOnComplete) {
         mOutput = output;
+        mUsesFileChannel = usesFileChannel;
+        mSyncsOnComplete = syncsOnComplete;
     }
 
     @Override
@@ -52,12 +74,16 @@ public class ResponseFileWriter implements ResponseFilter<ResponseFile> {
         final long contentLength = response.body().contentLength();
         final BufferedSource source = response.body().source();
         try {
-            final BufferedSink sink = Okio.buffer(isAppending ? Okio.appendingSink(mOutput) : Okio.sink(mOutput));
-            try {
-                sink.writeAll(source);
-                sink.flush();
-            } finally {
-                sink.close();
+            if (mUsesFileChannel) {
+                writeToChannel(source, isAppending, contentLength);
+            } else {
+                final BufferedSink sink = Okio.buffer(isAppending ? Okio.appendingSink(mOutput) : Okio.sink(mOutput));
+                try {
+                    sink.writeAll(source);
+                    sink.flush();
+                } finally {
+                    sink.close();
+                }
             }
         } finally {
             source.close();
@@ -77,4 +103,61 @@ public class ResponseFileWriter implements ResponseFilter<ResponseFile> {
                 contentType,
                 contentLength);
     }
+
+    private void writeToChannel(@NonNull final BufferedSource source, final boolean isAppending, final long contentLength) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(mOutput, "rw");
+        try {
+            final FileChannel channel = file.getChannel();
+            final long start = isAppending ? channel.size() : 0;
+            file.setLength(contentLength > 0 ? start + contentLength : start);
+
+            long written = 0;
+            boolean isCompleted = false;
+            try {
+                final byte[] bytes = new byte[CHANNEL_BUFFER_SIZE];
+                //Wraps the array instead of copying it to a direct buffer, because the channel copies it anyway.
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                boolean isExhausted = false;
+                while (!isExhausted) {
+                    int filled = 0;
+                    while (filled < bytes.length) {
+                        final int read = source.read(bytes, filled, bytes.length - filled);
+                        if (read < 0) {
+                            isExhausted = true;
+                            break;
+                        }
+                        filled += read;
+                    }
+                    if (contentLength >= 0 && written + filled > contentLength) {
+                        throw new ProtocolException("The body exceeds Content-Length " + contentLength);
+                    }
+
+                    buffer.clear();
+                    buffer.limit(filled);
+                    while (buffer.hasRemaining()) {
+                        written += channel.write(buffer, start + written);
+                    }
+                }
+
+                if (contentLength >= 0 && written != contentLength) {
+                    throw new ProtocolException("Expected " + contentLength + " bytes but received " + written);
+                }
+                if (mSyncsOnComplete) {
+                    channel.force(true);
+                }
+                isCompleted = true;
+            } finally {
+                if (!isCompleted) {
+                    //Drops the preallocated rest, so the file can be resumed from its length.
+                    try {
+                        file.setLength(start + written);
+                    } catch (final IOException e) {
+                        //Ignore.
+                    }
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Reads the top-level JSON array element by element, without building the whole tree.
+ * Each element is converted by the TypeAdapter and handed to the callback or put into the bounded queue.
+ * <p>
+ * The full queue blocks the reading until the consumer takes the elements.
+ * The queue does not receive the end, so the consumer takes the elements until the promise is finished and the queue is empty.
+ * The null elements are skipped in the queue.
+ * <p>
+ * The cancellation of the call is checked between the elements.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public final class ResponseJsonArrayStreamer<TElement> implements ResponseFilter<ResponseJsonArrayStream> {
+
+    private static final long CANCEL_POLLING_MILLIS = 100;
+
+    @NonNull
+    private final TypeAdapter<TElement> mAdapter;
+    @Nullable
+    private final JsonArrayCallback<? super TElement> mCallback;
+    @Nullable
+    private final BlockingQueue<? super TElement> mQueue;
+    private final boolean mAllowErrorCode;
+
+    private ResponseJsonArrayStreamer(@NonNull final TypeAdapter<TElement> adapter,
+                                      @Nullable final JsonArrayCallback<? super TElement> callback,
+                                      @Nullable final BlockingQueue<? super TElement> queue,
+                                      final boolean allowErrorCodeIfPossible) {
+        mAdapter = adapter;
+        mCallback = callback;
+        mQueue = queue;
+        mAllowErrorCode = allowErrorCodeIfPossible;
+    }
+
+    public ResponseJsonArrayStreamer(@NonNull final TypeAdapter<TElement> adapter,
+                                     @NonNull final JsonArrayCallback<? super TElement> callback,
+                                     final boolean allowErrorCodeIfPossible) {
+        this(adapter, callback, null, allowErrorCodeIfPossible);
+    }
+
+    public ResponseJsonArrayStreamer(@NonNull final TypeAdapter<TElement> adapter,
+                                     @NonNull final BlockingQueue<? super TElement> queue,
+                                     final boolean allowErrorCodeIfPossible) {
+        this(adapter, null, queue, allowErrorCodeIfPossible);
+    }
+
+    @Override
+    public ResponseJsonArrayStream pass(@NonNull Response response) throws Exception {
+        final Date localDate = new Date();
+        ResponseJsonConverter.ensureJsonResponse(response, mAllowErrorCode);
+
+        final ResponseBody body = response.body();
+        final Call call = body instanceof ProgressResponseBody ? ((ProgressResponseBody) body).getCall() : null;
+
+        int count = 0;
+        final JsonReader reader = new JsonReader(body.charStream());
+        try {
+            reader.setLenient(true);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                ensureNotCanceled(call);
+                final TElement element = mAdapter.read(reader);
+                if (mCallback != null) {
+                    mCallback.onElement(count, element);
+                } else if (element != null) {
+                    put(element, call);
+                }
+                ++count;
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+
+        return new ResponseJsonArrayStream(
+                response.request().method(),
+                response.request().url(),
+                response.sentRequestAtMillis(),
+                response.receivedResponseAtMillis(),
+                response.protocol(),
+                response.code(),
+                response.message(),
+                response.headers(),
+                localDate,
+                count);
+    }
+
+    private void put(@NonNull final TElement element, @Nullable final Call call) throws InterruptedException {
+        //noinspection ConstantConditions
+        while (!mQueue.offer(element, CANCEL_POLLING_MILLIS, TimeUnit.MILLISECONDS)) {
+            ensureNotCanceled(call);
+        }
+    }
+
+    private static void ensureNotCanceled(@Nullable final Call call) {
+        if (call != null && call.isCanceled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Gives the elements as {@link JsonElement}.
+     */
+    @NonNull
+    public static TypeAdapter<JsonElement> jsonElementAdapter() {
+        return ResponseJsonBinder.getDefaultGson().getAdapter(JsonElement.class);
+    }
+}
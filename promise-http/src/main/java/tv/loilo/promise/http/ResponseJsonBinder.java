@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.util.Date;
+
+import okhttp3.Response;
+
+/**
+ * Binds the JSON body to the object straight from the character stream, without building the JsonElement tree.
+ * The TypeAdapter is looked up once per binder, and {@link Gson} caches it for each type.
+ * The empty body gives null.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public final class ResponseJsonBinder<T> implements ResponseFilter<ResponseAs<T>> {
+
+    private static final Gson mDefaultGson = new Gson();
+
+    @NonNull
+    private final TypeAdapter<T> mAdapter;
+    private final boolean mAllowErrorCode;
+
+    public ResponseJsonBinder(@NonNull final TypeAdapter<T> adapter, final boolean allowErrorCodeIfPossible) {
+        mAdapter = adapter;
+        mAllowErrorCode = allowErrorCodeIfPossible;
+    }
+
+    public ResponseJsonBinder(@NonNull final Gson gson, @NonNull final TypeToken<T> type, final boolean allowErrorCodeIfPossible) {
+        this(gson.getAdapter(type), allowErrorCodeIfPossible);
+    }
+
+    public ResponseJsonBinder(@NonNull final TypeToken<T> type, final boolean allowErrorCodeIfPossible) {
+        this(mDefaultGson, type, allowErrorCodeIfPossible);
+    }
+
+    /**
+     * @return the Gson shared by the filters that are not given the Gson
+     */
+    @NonNull
+    public static Gson getDefaultGson() {
+        return mDefaultGson;
+    }
+
+    @Override
+    public ResponseAs<T> pass(@NonNull Response response) throws Exception {
+        final Date localDate = new Date();
+        ResponseJsonConverter.ensureJsonResponse(response, mAllowErrorCode);
+
+        final JsonReader reader = new JsonReader(response.body().charStream());
+        final T body;
+        try {
+            body = read(reader);
+        } finally {
+            reader.close();
+        }
+
+        return new ResponseAs<>(
+                response.request().method(),
+                response.request().url(),
+                response.sentRequestAtMillis(),
+                response.receivedResponseAtMillis(),
+                response.protocol(),
+                response.code(),
+                response.message(),
+                response.headers(),
+                localDate,
+                body);
+    }
+
+    @Nullable
+    private T read(@NonNull final JsonReader reader) throws Exception {
+        reader.setLenient(true);
+        try {
+            reader.peek();
+        } catch (final EOFException e) {
+            return null;
+        }
+        final T body = mAdapter.read(reader);
+        if (reader.peek() != JsonToken.END_DOCUMENT) {
+            throw new JsonSyntaxException("JSON document was not fully consumed.");
+        }
+        return body;
+    }
+}
@@ -81,26 +81,26 @@ public abstract class ResponseJsonConverter<TJson extends JsonElement, TResponse
         }
     }
 
-    @Nullable
-    @Override
-    public TResponse pass(@NonNull Response response) throws Exception {
-        final Date localDate = new Date();
-        boolean statusCodeChecked = false;
-        if (!mAllowErrorCode) {
+    /**
+     * Allows the error code only if the body is JSON.
+     */
+    static void ensureJsonResponse(@NonNull final Response response, final boolean allowErrorCodeIfPossible) throws HttpResponseException {
+        if (!allowErrorCodeIfPossible) {
             HttpUtils.ensureSuccessStatusCode(response);
-            statusCodeChecked = true;
+            return;
         }
 
         final MediaType mediaType = response.body().contentType();
-        if (mediaType == null) {
-            if (!statusCodeChecked) {
-                HttpUtils.ensureSuccessStatusCode(response);
-            }
-        } else if (!"application".equals(mediaType.type()) || !"json".equals(mediaType.subtype())) {
-            if (!statusCodeChecked) {
-                HttpUtils.ensureSuccessStatusCode(response);
-            }
+        if (mediaType == null || !"application".equals(mediaType.type()) || !"json".equals(mediaType.subtype())) {
+            HttpUtils.ensureSuccessStatusCode(response);
         }
+    }
+
+    @Nullable
+    @Override
+    public TResponse pass(@NonNull Response response) throws Exception {
+        final Date localDate = new Date();
+        ensureJsonResponse(response, mAllowErrorCode);
 
         final Reader responseReader = response.body().charStream();
         try {
@@ -0,0 +1,492 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import tv.loilo.promise.ProgressReporter;
+import tv.loilo.promise.PromiseExecutor;
+
+/**
+ * Writes the response to the file, downloading the large file with the parallel ranged requests.
+ * <p>
+ * The response of the original request tells whether the server accepts the ranges.
+ * If it does, the file is preallocated and split into the segments.
+ * The first segment is read from the original response, and the others are requested with the Range header at the same time.
+ * Each segment is written at its offset of the file.
+ * <p>
+ * The written bytes of each segment are saved to the sidecar file ({@code <output>.segments}) while downloading and when the download stops,
+ * and the next download of the same content resumes from there, also after the process is killed.
+ * The content is identified by the ETag or Last-Modified header, and the ranged requests send it as If-Range.
+ * The sidecar file is deleted when the download completes.
+ * <p>
+ * The other responses are written as {@link ResponseFileWriter} does.
+ * The progress is reported as the total of the segments, possibly from the multiple threads.
+ * <p>
+ * The ranged requests are executed on the own threads, not enqueued to the dispatcher of the client.
+ * The original response is read on the thread of the dispatcher, which holds its slot of the host while waiting for the segments,
+ * so the enqueued requests could wait for the slots forever.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public class SegmentedFileWriter implements ResponseFilter<ResponseFile> {
+
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final String SIDECAR_SUFFIX = ".segments";
+    private static final String SIDECAR_HEADER = "loilo-promise-segments 1";
+    private static final int BUFFER_SIZE = 8192;
+    private static final long CANCEL_POLLING_MILLIS = 100;
+    //The sidecar is saved when either of them is passed since the last save.
+    private static final long SAVE_INTERVAL_BYTES = 1024 * 1024;
+    private static final long SAVE_INTERVAL_MILLIS = 1000;
+
+    @NonNull
+    private final OkHttpClient mClient;
+    @NonNull
+    private final File mOutput;
+    private final int mMaxSegments;
+    private final long mMinSegmentSize;
+
+    /**
+     * @param client         the client to send the ranged requests
+     * @param output         the file to write
+     * @param maxSegments    the maximum number of the requests at once
+     * @param minSegmentSize the minimum bytes of a segment. The content smaller than twice of it is not split.
+     */
+    public SegmentedFileWriter(@NonNull final OkHttpClient client, @NonNull final File output, final int maxSegments, final long minSegmentSize) {
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("maxSegments must be positive.");
+        }
+        if (minSegmentSize <= 0) {
+            throw new IllegalArgumentException("minSegmentSize must be positive.");
+        }
+        mClient = client;
+        mOutput = output;
+        mMaxSegments = maxSegments;
+        mMinSegmentSize = minSegmentSize;
+    }
+
+    public SegmentedFileWriter(@NonNull final OkHttpClient client, @NonNull final File output, final int maxSegments) {
+        this(client, output, maxSegments, DEFAULT_MIN_SEGMENT_SIZE);
+    }
+
+    @NonNull
+    public File getSidecarFile() {
+        return new File(mOutput.getPath() + SIDECAR_SUFFIX);
+    }
+
+    @Nullable
+    private static String getValidator(@NonNull final Response response) {
+        final String etag = response.header("ETag");
+        //Weak ETag can not be used with If-Range.
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    @Override
+    public ResponseFile pass(@NonNull Response response) throws Exception {
+        final Date localDate = new Date();
+
+        HttpUtils.ensureSuccessStatusCode(response);
+
+        final long contentLength = response.body().contentLength();
+        if (response.code() != 200
+                || !"bytes".equalsIgnoreCase(response.header("Accept-Ranges"))
+                || contentLength < mMinSegmentSize * 2
+                || mMaxSegments < 2) {
+            return new ResponseFileWriter(mOutput).pass(response);
+        }
+
+        new Download(response, contentLength, getValidator(response)).run();
+
+        return new ResponseFile(
+                response.request().method(),
+                response.request().url(),
+                response.sentRequestAtMillis(),
+                response.receivedResponseAtMillis(),
+                response.protocol(),
+                response.code(),
+                response.message(),
+                response.headers(),
+                localDate,
+                mOutput,
+                response.body().contentType(),
+                contentLength);
+    }
+
+    @NonNull
+    private List<Segment> newSegments(final long contentLength) {
+        final long count = Math.min(mMaxSegments, contentLength / mMinSegmentSize);
+        final long size = contentLength / count;
+        final List<Segment> segments = new ArrayList<>((int) count);
+        for (int i = 0; i < count; ++i) {
+            final long start = i * size;
+            final long end = i == count - 1 ? contentLength : start + size;
+            segments.add(new Segment(start, end, 0));
+        }
+        return segments;
+    }
+
+    @Nullable
+    private List<Segment> loadSegments(final long contentLength, @Nullable final String validator) {
+        final File sidecar = getSidecarFile();
+        if (validator == null || !sidecar.isFile() || mOutput.length() != contentLength) {
+            return null;
+        }
+        try {
+            final BufferedSource source = Okio.buffer(Okio.source(sidecar));
+            try {
+                if (!SIDECAR_HEADER.equals(source.readUtf8LineStrict())
+                        || Long.parseLong(source.readUtf8LineStrict()) != contentLength
+                        || !validator.equals(source.readUtf8LineStrict())) {
+                    return null;
+                }
+                final int count = Integer.parseInt(source.readUtf8LineStrict());
+                final List<Segment> segments = new ArrayList<>(count);
+                long expectedStart = 0;
+                for (int i = 0; i < count; ++i) {
+                    final String[] fields = source.readUtf8LineStrict().split(" ");
+                    final Segment segment = new Segment(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                    if (segment.mStart != expectedStart || segment.mEnd < segment.mStart
+                            || segment.mWritten < 0 || segment.mWritten > segment.mEnd - segment.mStart) {
+                        return null;
+                    }
+                    expectedStart = segment.mEnd;
+                    segments.add(segment);
+                }
+                return expectedStart == contentLength ? segments : null;
+            } finally {
+                source.close();
+            }
+        } catch (final IOException | RuntimeException e) {
+            //Broken sidecar starts over.
+            return null;
+        }
+    }
+
+    private void saveSegments(@NonNull final List<Segment> segments, final long contentLength, @NonNull final String validator) throws IOException {
+        final File sidecar = getSidecarFile();
+        final File temp = new File(sidecar.getPath() + ".tmp");
+        final BufferedSink sink = Okio.buffer(Okio.sink(temp));
+        try {
+            sink.writeUtf8(SIDECAR_HEADER).writeByte('\n');
+            sink.writeUtf8(Long.toString(contentLength)).writeByte('\n');
+            sink.writeUtf8(validator).writeByte('\n');
+            sink.writeUtf8(Integer.toString(segments.size())).writeByte('\n');
+            for (Segment segment : segments) {
+                sink.writeUtf8(segment.mStart + " " + segment.mEnd + " " + segment.mWritten).writeByte('\n');
+            }
+        } finally {
+            sink.close();
+        }
+        if (!temp.renameTo(sidecar)) {
+            throw new IOException("Failed to save " + sidecar);
+        }
+    }
+
+    private static final class Segment {
+        final long mStart;
+        //Exclusive.
+        final long mEnd;
+        //Written only by the thread downloading this segment.
+        volatile long mWritten;
+        volatile Call mCall;
+
+        Segment(final long start, final long end, final long written) {
+            mStart = start;
+            mEnd = end;
+            mWritten = written;
+        }
+
+        long getRemaining() {
+            return mEnd - mStart - mWritten;
+        }
+    }
+
+    private final class Download {
+        @NonNull
+        private final Response mResponse;
+        private final long mContentLength;
+        @Nullable
+        private final String mValidator;
+        @Nullable
+        private final Call mCall;
+        @Nullable
+        private final ProgressReporter<HttpProgress> mReporter;
+        private final AtomicReference<Throwable> mError = new AtomicReference<>();
+        //Guarded by this.
+        private long mTotalBytes;
+        private long mUnsavedBytes;
+        private long mLastSavedNanos;
+        private List<Segment> mSegments;
+        private FileChannel mChannel;
+
+        Download(@NonNull final Response response, final long contentLength, @Nullable final String validator) {
+            mResponse = response;
+            mContentLength = contentLength;
+            mValidator = validator;
+            final ResponseBody body = response.body();
+            if (body instanceof ProgressResponseBody) {
+                mCall = ((ProgressResponseBody) body).getCall();
+                mReporter = ((ProgressResponseBody) body).getReporter();
+            } else {
+                mCall = null;
+                mReporter = null;
+            }
+        }
+
+        void run() throws Exception {
+            List<Segment> segments = loadSegments(mContentLength, mValidator);
+            if (segments == null) {
+                segments = newSegments(mContentLength);
+            }
+            mSegments = segments;
+            for (Segment segment : segments) {
+                mTotalBytes += segment.mWritten;
+            }
+
+            final RandomAccessFile file = new RandomAccessFile(mOutput, "rw");
+            try {
+                file.setLength(mContentLength);
+                mChannel = file.getChannel();
+                if (mValidator != null) {
+                    saveSegments(segments, mContentLength, mValidator);
+                    mLastSavedNanos = System.nanoTime();
+                }
+                download();
+            } finally {
+                file.close();
+            }
+
+            final Throwable error = mError.get();
+            if (error == null) {
+                if (!getSidecarFile().delete() && getSidecarFile().exists()) {
+                    throw new IOException("Failed to delete " + getSidecarFile());
+                }
+                return;
+            }
+
+            if (mValidator != null) {
+                synchronized (this) {
+                    saveSegments(segments, mContentLength, mValidator);
+                }
+            }
+            if (error instanceof Exception) {
+                throw (Exception) error;
+            }
+            throw (Error) error;
+        }
+
+        private void download() throws InterruptedException {
+            final Segment first = mSegments.get(0);
+            final boolean readsFirst = first.mWritten == 0 && first.getRemaining() > 0;
+
+            final List<Segment> ranged = new ArrayList<>();
+            for (Segment segment : mSegments) {
+                if (segment.getRemaining() > 0 && (segment != first || !readsFirst)) {
+                    ranged.add(segment);
+                }
+            }
+
+            final CountDownLatch latch = new CountDownLatch(ranged.size());
+            for (Segment segment : ranged) {
+                execute(segment, latch);
+            }
+
+            final BufferedSource source = getOriginalBody().source();
+            try {
+                if (readsFirst) {
+                    read(first, source);
+                }
+            } catch (final Throwable e) {
+                fail(e);
+            } finally {
+                //Stops receiving the rest of the original response.
+                closeQuietly(source);
+            }
+
+            while (!latch.await(CANCEL_POLLING_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (isCanceled()) {
+                    fail(new CancellationException());
+                }
+            }
+        }
+
+        @NonNull
+        private ResponseBody getOriginalBody() {
+            final ResponseBody body = mResponse.body();
+            if (body instanceof ProgressResponseBody) {
+                return ((ProgressResponseBody) body).getOriginalBody();
+            }
+            return body;
+        }
+
+        private boolean isCanceled() {
+            return mCall != null && mCall.isCanceled();
+        }
+
+        private void execute(@NonNull final Segment segment, @NonNull final CountDownLatch latch) {
+            final long from = segment.mStart + segment.mWritten;
+            final Request.Builder builder = mResponse.request().newBuilder()
+                    .header("Range", "bytes=" + from + "-" + (segment.mEnd - 1));
+            if (mValidator != null) {
+                builder.header("If-Range", mValidator);
+            }
+            final Call call = mClient.newCall(builder.build());
+            segment.mCall = call;
+            //The failure may be set before the call is published.
+            if (mError.get() != null) {
+                call.cancel();
+            }
+
+            final Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (mError.get() != null) {
+                            return;
+                        }
+                        final Response response;
+                        try {
+                            response = call.execute();
+                        } catch (final IOException e) {
+                            fail(call.isCanceled() ? new CancellationException() : e);
+                            return;
+                        }
+                        try {
+                            HttpUtils.ensureSuccessStatusCode(response);
+                            if (response.code() != 206 || !isExpectedRange(response, from)) {
+                                //The content is changed, or the range is ignored.
+                                throw new HttpResponseException(response.code(), "Unexpected response to the range request: " + response.header("Content-Range"));
+                            }
+                            read(segment, response.body().source());
+                        } finally {
+                            response.body().close();
+                        }
+                    } catch (final Throwable e) {
+                        fail(e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            };
+
+            try {
+                Executor.INSTANCE.execute(runnable);
+            } catch (final RejectedExecutionException e) {
+                fail(e);
+                latch.countDown();
+            }
+        }
+
+        private boolean isExpectedRange(@NonNull final Response response, final long from) {
+            final String contentRange = response.header("Content-Range");
+            return contentRange != null && contentRange.startsWith("bytes " + from + "-");
+        }
+
+        private void read(@NonNull final Segment segment, @NonNull final BufferedSource source) throws IOException {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long remaining;
+            while ((remaining = segment.getRemaining()) > 0) {
+                if (isCanceled() || mError.get() != null) {
+                    throw new CancellationException();
+                }
+                final int bytes = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (bytes < 0) {
+                    throw new EOFException("The segment ended at " + (segment.mStart + segment.mWritten));
+                }
+                byteBuffer.clear().limit(bytes);
+                long position = segment.mStart + segment.mWritten;
+                while (byteBuffer.hasRemaining()) {
+                    position += mChannel.write(byteBuffer, position);
+                }
+                segment.mWritten += bytes;
+                reportProgress(bytes);
+            }
+        }
+
+        private synchronized void reportProgress(final int bytes) throws IOException {
+            mTotalBytes += bytes;
+            mUnsavedBytes += bytes;
+            if (mValidator != null && (mUnsavedBytes >= SAVE_INTERVAL_BYTES
+                    || System.nanoTime() - mLastSavedNanos >= TimeUnit.MILLISECONDS.toNanos(SAVE_INTERVAL_MILLIS))) {
+                //The written bytes are in the file already, so the saved state never runs ahead of the file.
+                saveSegments(mSegments, mContentLength, mValidator);
+                mUnsavedBytes = 0;
+                mLastSavedNanos = System.nanoTime();
+            }
+            if (mReporter instanceof HttpProgressThrottle) {
+                ((HttpProgressThrottle) mReporter).report(HttpProgress.Phase.RESPONSE, mResponse.code(), mTotalBytes, mContentLength);
+            } else if (mReporter != null) {
+                mReporter.report(new HttpProgress(HttpProgress.Phase.RESPONSE, mResponse.code(), mTotalBytes, mContentLength));
+            }
+        }
+
+        private void fail(@NonNull final Throwable e) {
+            if (!mError.compareAndSet(null, e)) {
+                return;
+            }
+            for (Segment segment : mSegments) {
+                final Call call = segment.mCall;
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        }
+    }
+
+    //Runs the ranged requests apart from the dispatcher of the client.
+    private static final class Executor {
+        static final ExecutorService INSTANCE = PromiseExecutor.newCached("loilo-promise-http-segment");
+    }
+
+    private static void closeQuietly(@NonNull final BufferedSource source) {
+        try {
+            source.close();
+        } catch (final IOException e) {
+            //Ignore.
+        }
+    }
+}
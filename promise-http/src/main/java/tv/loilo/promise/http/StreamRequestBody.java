@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import tv.loilo.promise.CancelToken;
+import tv.loilo.promise.ProgressReporter;
+
+/**
+ * Request body that uploads the file or the stream in the fixed-size chunks, so the memory use does not grow with the size.
+ * <p>
+ * The cancellation is checked between the chunks, and the canceled upload fails with InterruptedIOException.
+ * The file body can start at the offset, to resume the upload or to upload the file in parts.
+ * The progress is reported in the bytes of the whole file.
+ * <p>
+ * The stream body can be written only once, so OkHttp can not retry it.
+ */
+@SuppressWarnings("TryFinallyCanBeTryWithResources")
+public final class StreamRequestBody extends RequestBody {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    @Nullable
+    private final MediaType mContentType;
+    @Nullable
+    private final File mFile;
+    @Nullable
+    private InputStream mStream;
+    private final long mOffset;
+    private final long mLength;
+    private final long mTotalLength;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    @Nullable
+    private ProgressReporter<HttpProgress> mReporter;
+    @Nullable
+    private CancelToken mCancelToken;
+
+    private StreamRequestBody(@Nullable final MediaType contentType, @Nullable final File file, @Nullable final InputStream stream,
+                              final long offset, final long length, final long totalLength) {
+        mContentType = contentType;
+        mFile = file;
+        mStream = stream;
+        mOffset = offset;
+        mLength = length;
+        mTotalLength = totalLength;
+    }
+
+    /**
+     * Uploads the whole file.
+     */
+    @NonNull
+    public static StreamRequestBody fromFile(@Nullable final MediaType contentType, @NonNull final File file) {
+        return fromFile(contentType, file, 0, -1);
+    }
+
+    /**
+     * Uploads the part of the file.
+     *
+     * @param offset the first byte to upload
+     * @param length the bytes to upload, or -1 to upload the rest of the file
+     */
+    @NonNull
+    public static StreamRequestBody fromFile(@Nullable final MediaType contentType, @NonNull final File file, final long offset, final long length) {
+        final long fileLength = file.length();
+        if (offset < 0 || offset > fileLength) {
+            throw new IllegalArgumentException("offset is out of the file.");
+        }
+        if (length < -1 || (length >= 0 && offset + length > fileLength)) {
+            throw new IllegalArgumentException("length is out of the file.");
+        }
+        return new StreamRequestBody(contentType, file, null, offset, length < 0 ? fileLength - offset : length, fileLength);
+    }
+
+    /**
+     * Uploads the stream. The stream is closed after it is written.
+     *
+     * @param length the bytes of the stream, or -1 if unknown
+     */
+    @NonNull
+    public static StreamRequestBody fromStream(@Nullable final MediaType contentType, @NonNull final InputStream stream, final long length) {
+        if (length < -1) {
+            throw new IllegalArgumentException("length must be -1 or more.");
+        }
+        return new StreamRequestBody(contentType, null, stream, 0, length, length);
+    }
+
+    public StreamRequestBody setChunkSize(final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive.");
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    public StreamRequestBody setReporter(@Nullable final ProgressReporter<HttpProgress> reporter) {
+        mReporter = reporter;
+        return this;
+    }
+
+    /**
+     * @param cancelToken the token checked between the chunks, such as the one of the promise params
+     */
+    public StreamRequestBody setCancelToken(@Nullable final CancelToken cancelToken) {
+        mCancelToken = cancelToken;
+        return this;
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return mLength;
+    }
+
+    @NonNull
+    private InputStream open() throws IOException {
+        if (mFile != null) {
+            final FileInputStream input = new FileInputStream(mFile);
+            try {
+                input.getChannel().position(mOffset);
+            } catch (final IOException e) {
+                input.close();
+                throw e;
+            }
+            return input;
+        }
+
+        synchronized (this) {
+            final InputStream stream = mStream;
+            if (stream == null) {
+                throw new IllegalStateException("The stream can be written only once.");
+            }
+            mStream = null;
+            return stream;
+        }
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        final InputStream input = open();
+        try {
+            final byte[] buffer = new byte[mChunkSize];
+            long written = 0;
+            while (mLength < 0 || written < mLength) {
+                ProgressRequestBody.ensureNotCanceled(mCancelToken);
+                final int toRead = mLength < 0 ? buffer.length : (int) Math.min(buffer.length, mLength - written);
+                final int bytes = input.read(buffer, 0, toRead);
+                if (bytes < 0) {
+                    if (mLength < 0) {
+                        break;
+                    }
+                    throw new EOFException("The source ended at " + written + " of " + mLength + " bytes.");
+                }
+                sink.write(buffer, 0, bytes);
+                written += bytes;
+                ProgressRequestBody.report(mReporter, mOffset + written, mTotalLength);
+            }
+            if (mReporter instanceof HttpProgressThrottle) {
+                //Flushes the dropped progress.
+                ((HttpProgressThrottle) mReporter).report(HttpProgress.Phase.REQUEST, 0, mOffset + written, mTotalLength);
+            }
+        } finally {
+            input.close();
+        }
+    }
+}
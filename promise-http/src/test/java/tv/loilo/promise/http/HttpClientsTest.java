@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.Test;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class HttpClientsTest {
+
+    @Test
+    public void testDefault() throws Exception {
+        final OkHttpClient builtIn = HttpClients.getDefault();
+        assertSame(builtIn, HttpClients.getDefault());
+        assertEquals(HttpClients.DEFAULT_MAX_REQUESTS_PER_HOST, builtIn.dispatcher().getMaxRequestsPerHost());
+        assertNotNull(HttpClients.getDispatcherExecutor());
+
+        final OkHttpClient client = builtIn.newBuilder().build();
+        HttpClients.setDefault(client);
+        try {
+            assertSame(client, HttpClients.getDefault());
+            //The derived client shares the connection pool.
+            assertSame(builtIn.connectionPool(), client.connectionPool());
+        } finally {
+            HttpClients.setDefault(null);
+        }
+        assertSame(builtIn, HttpClients.getDefault());
+        assertEquals(0, HttpClients.getQueuedCallsCount());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tv.loilo.promise.ProgressReporter;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpProgressThrottleTest {
+
+    private static void run(HttpProgressThrottle throttle, long contentLength, long step) {
+        long total = 0;
+        while (total < contentLength) {
+            total = Math.min(contentLength, total + step);
+            throttle.report(HttpProgress.Phase.RESPONSE, 200, total, contentLength);
+        }
+    }
+
+    private static HttpProgressThrottle newThrottle(final List<Long> reported, long minBytes, int minPerMille) {
+        return new HttpProgressThrottle(new ProgressReporter<HttpProgress>() {
+            @Override
+            public void report(HttpProgress progress) {
+                reported.add(progress.getBytesProceeded());
+            }
+        }, 0, minBytes, minPerMille);
+    }
+
+    @Test
+    public void testPerMille() throws Exception {
+        final List<Long> reported = new ArrayList<>();
+        final HttpProgressThrottle throttle = newThrottle(reported, 0, 100);
+        run(throttle, 100000, 1000);
+
+        //The first one, every 10 percent and the completed one.
+        assertEquals(11, reported.size());
+        assertEquals(1000L, (long) reported.get(0));
+        assertEquals(100000L, (long) reported.get(reported.size() - 1));
+    }
+
+    @Test
+    public void testFlushAtEndOfStream() throws Exception {
+        final List<Long> reported = new ArrayList<>();
+        final HttpProgressThrottle throttle = newThrottle(reported, 4096, 0);
+
+        //The content length is unknown.
+        for (long total = 1000; total <= 10000; total += 1000) {
+            throttle.report(HttpProgress.Phase.RESPONSE, 200, total, -1);
+        }
+        //The end of the stream reports the same bytes again.
+        throttle.report(HttpProgress.Phase.RESPONSE, 200, 10000, -1);
+
+        assertEquals(3, reported.size());
+        assertEquals(1000L, (long) reported.get(0));
+        assertEquals(6000L, (long) reported.get(1));
+        assertEquals(10000L, (long) reported.get(2));
+    }
+
+    @Test
+    public void testPhaseChange() throws Exception {
+        final List<Long> reported = new ArrayList<>();
+        final HttpProgressThrottle throttle = newThrottle(reported, 1000000, 0);
+
+        throttle.report(HttpProgress.Phase.REQUEST, 0, 10, 1000);
+        throttle.report(HttpProgress.Phase.REQUEST, 0, 20, 1000);
+        throttle.report(HttpProgress.Phase.RESPONSE, 200, 10, 1000);
+
+        assertEquals(2, reported.size());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.FinishCallback;
+import tv.loilo.promise.FinishParams;
+import tv.loilo.promise.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpResponseCacheTest {
+
+    private static ResponseString newResponse(String url, Headers headers) {
+        return new ResponseString("GET", HttpUrl.parse(url), 0, 0, Protocol.HTTP_1_1, 200, "OK", headers, new Date(), "body");
+    }
+
+    @Test
+    public void testRevalidate() throws Exception {
+        final HttpResponseCache<ResponseString> cache = new HttpResponseCache<>(2);
+        final Request request = new Request.Builder().url("http://localhost/a").build();
+
+        HttpResponseCache.Lookup<ResponseString> lookup = cache.lookup(request);
+        assertSame(request, lookup.toConditionalRequest(request));
+        final ResponseString response = newResponse("http://localhost/a", Headers.of("ETag", "\"1\"", "Last-Modified", "Mon, 01 Jan 2018 00:00:00 GMT"));
+        lookup.onFiltered(response);
+
+        lookup = cache.lookup(request);
+        final Request conditional = lookup.toConditionalRequest(request);
+        assertEquals("\"1\"", conditional.header("If-None-Match"));
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", conditional.header("If-Modified-Since"));
+        assertNull(lookup.getNotModified(200));
+        assertSame(response, lookup.getNotModified(304));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        final HttpResponseCache<ResponseString> cache = new HttpResponseCache<>(2);
+        final Request request = new Request.Builder().url("http://localhost/a").build();
+
+        cache.lookup(request).onFiltered(newResponse("http://localhost/a", Headers.of()));
+        cache.lookup(request).onFiltered(newResponse("http://localhost/a", Headers.of("ETag", "\"1\"", "Cache-Control", "no-store")));
+        assertEquals(0, cache.size());
+        assertNull(cache.lookup(new Request.Builder().url("http://localhost/a").delete().build()));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        final HttpResponseCache<ResponseString> cache = new HttpResponseCache<>(2);
+        for (String path : new String[]{"a", "b", "a", "c"}) {
+            final String url = "http://localhost/" + path;
+            cache.lookup(new Request.Builder().url(url).build()).onFiltered(newResponse(url, Headers.of("ETag", "\"1\"")));
+        }
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        //b is the least recently used.
+        final Request b = new Request.Builder().url("http://localhost/b").build();
+        assertSame(b, cache.lookup(b).toConditionalRequest(b));
+    }
+
+    private static Result<ResponseString> await(final HttpTaskAs<ResponseString> task) {
+        final Deferrable<ResponseString> result = new Deferrable<>();
+        task.promise().finish(new FinishCallback<ResponseString>() {
+            @Override
+            public void run(FinishParams<ResponseString> params) {
+                result.setResult(params.asResult());
+            }
+        }).submit();
+        return result.getResult();
+    }
+
+    private static HttpTaskAs<ResponseString> newTask(final OkHttpClient client, final Request request, final AtomicInteger filterCount,
+                                                     final HttpResponseCache<ResponseString> cache) {
+        final ResponseStringer stringer = new ResponseStringer(false);
+        return new HttpTask(client, request).filterBy(new ResponseFilter<ResponseString>() {
+            @Override
+            public ResponseString pass(@NonNull Response response) throws Exception {
+                filterCount.incrementAndGet();
+                return stringer.pass(response);
+            }
+        }).cache(cache);
+    }
+
+    @Test
+    public void testTaskRevalidates() throws Exception {
+        final MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setHeader("ETag", "\"1\"").setBody("body"));
+        server.enqueue(new MockResponse().setResponseCode(304));
+        server.start();
+        try {
+            final OkHttpClient client = new OkHttpClient();
+            final HttpResponseCache<ResponseString> cache = new HttpResponseCache<>(2);
+            final Request request = new Request.Builder().url(server.url("/a")).build();
+            final AtomicInteger filterCount = new AtomicInteger();
+
+            final ResponseString first = await(newTask(client, request, filterCount, cache)).safeGetValue();
+            assertEquals("body", first.getBody());
+            assertNull(server.takeRequest().getHeader("If-None-Match"));
+
+            //The 304 returns the cached instance without running the filter.
+            assertSame(first, await(newTask(client, request, filterCount, cache)).safeGetValue());
+            assertEquals("\"1\"", server.takeRequest().getHeader("If-None-Match"));
+            assertEquals(1, filterCount.get());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testTaskNotCachingFailure() throws Exception {
+        final MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(404).setHeader("ETag", "\"1\"").setBody("missing"));
+        server.enqueue(new MockResponse().setHeader("ETag", "\"2\"").setBody("body"));
+        server.start();
+        try {
+            final OkHttpClient client = new OkHttpClient();
+            final HttpResponseCache<ResponseString> cache = new HttpResponseCache<>(2);
+            final Request request = new Request.Builder().url(server.url("/a")).build();
+            final AtomicInteger filterCount = new AtomicInteger();
+
+            //The filter fails on 404, so nothing is stored.
+            assertTrue(await(newTask(client, request, filterCount, cache)).getException() instanceof HttpResponseException);
+            assertEquals(0, cache.size());
+
+            assertEquals("body", await(newTask(client, request, filterCount, cache)).safeGetValue().getBody());
+            server.takeRequest();
+            assertNull(server.takeRequest().getHeader("If-None-Match"));
+            assertEquals(1, cache.size());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testTaskFromCallNotCached() throws Exception {
+        final Request request = new Request.Builder().url("http://localhost/a").build();
+        final HttpTaskAs<ResponseString> task = new HttpTask(new OkHttpClient().newCall(request)).asString();
+        try {
+            task.cache(new HttpResponseCache<ResponseString>(2));
+            fail();
+        } catch (final IllegalStateException e) {
+            //Expected.
+        }
+    }
+}
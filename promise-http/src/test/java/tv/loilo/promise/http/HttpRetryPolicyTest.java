@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.Test;
+
+import okhttp3.Headers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HttpRetryPolicyTest {
+
+    @Test
+    public void testBackoff() throws Exception {
+        final HttpRetryPolicy policy = new HttpRetryPolicy().setBackoff(100, 350, 2).setJitter(0);
+        assertEquals(100, policy.getDelayMillis(1, null));
+        assertEquals(200, policy.getDelayMillis(2, null));
+        assertEquals(350, policy.getDelayMillis(3, null));
+
+        final HttpRetryPolicy jittered = new HttpRetryPolicy().setBackoff(100, 1000, 2).setJitter(1);
+        for (int i = 0; i < 100; ++i) {
+            final long delay = jittered.getDelayMillis(2, null);
+            assertTrue(delay >= 0 && delay <= 200);
+        }
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        final HttpRetryPolicy policy = new HttpRetryPolicy().setJitter(0).setRetryAfter(true, 5000);
+        assertEquals(3000, policy.getDelayMillis(1, Headers.of("Retry-After", "3")));
+        assertEquals(-1, policy.getDelayMillis(1, Headers.of("Retry-After", "60")));
+        //Falls back to the backoff.
+        assertEquals(HttpRetryPolicy.DEFAULT_INITIAL_BACKOFF_MILLIS, policy.getDelayMillis(1, Headers.of("Retry-After", "soon")));
+
+        final HttpRetryPolicy ignoring = new HttpRetryPolicy().setJitter(0).setRetryAfter(false, 0);
+        assertEquals(HttpRetryPolicy.DEFAULT_INITIAL_BACKOFF_MILLIS, ignoring.getDelayMillis(1, Headers.of("Retry-After", "60")));
+    }
+
+    @Test
+    public void testCanRetry() throws Exception {
+        final HttpRetryPolicy policy = new HttpRetryPolicy().setMaxAttempts(2);
+        assertTrue(policy.canRetry(1, "GET"));
+        assertFalse(policy.canRetry(2, "GET"));
+        assertFalse(policy.canRetry(1, "POST"));
+        assertTrue(policy.setRetriesNonIdempotent(true).canRetry(1, "POST"));
+
+        assertTrue(HttpRetryPolicy.canRetry(503));
+        assertTrue(HttpRetryPolicy.canRetry(429));
+        assertFalse(HttpRetryPolicy.canRetry(404));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import tv.loilo.promise.Canceller;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Deferred;
+import tv.loilo.promise.FinishCallback;
+import tv.loilo.promise.FinishParams;
+import tv.loilo.promise.Promises;
+import tv.loilo.promise.Result;
+import tv.loilo.promise.WhenCallback;
+import tv.loilo.promise.WhenParams;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HttpSingleFlightTest {
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    //The server holds the responses until released, so the calls stay in flight.
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+    private HttpSingleFlight<ResponseString> mGroup;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                mRequestCount.incrementAndGet();
+                mRelease.await();
+                return new MockResponse().setBody("ok");
+            }
+        });
+        mServer.start();
+        mClient = new OkHttpClient();
+        mGroup = new HttpSingleFlight<>("Authorization");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRelease.countDown();
+        mServer.shutdown();
+    }
+
+    private Deferred<ResponseString> join(final Request request) {
+        return mGroup.join(new HttpTask(mClient, request).asString());
+    }
+
+    private Request.Builder get(final String path) {
+        return new Request.Builder().url(mServer.url(path));
+    }
+
+    //Joins in a promise as HttpTaskAs#promise() does, so the wait can be canceled like the task.
+    private Canceller submit(final Request request, final CountDownLatch joined, final Deferrable<ResponseString> result) {
+        return Promises.when(new WhenCallback<ResponseString>() {
+            @Override
+            public Deferred<ResponseString> run(WhenParams params) throws Exception {
+                final Deferred<ResponseString> deferred = join(request);
+                joined.countDown();
+                return deferred;
+            }
+        }).finish(new FinishCallback<ResponseString>() {
+            @Override
+            public void run(FinishParams<ResponseString> params) {
+                result.setResult(params.asResult());
+            }
+        }).submit();
+    }
+
+    private void awaitRequests(final int count) throws Exception {
+        for (int i = 0; i < count; ++i) {
+            assertNotNull(mServer.takeRequest(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private void awaitNoRunningCalls() throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (mClient.dispatcher().runningCallsCount() > 0) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testSharesSameGet() throws Exception {
+        final Request request = get("/same").build();
+        final Deferred<ResponseString> first = join(request);
+        final Deferred<ResponseString> second = join(request);
+        final Deferred<ResponseString> third = join(get("/same").build());
+        assertEquals(1, mGroup.getFlightCount());
+
+        awaitRequests(1);
+        mRelease.countDown();
+
+        final Result<ResponseString> result = first.getResult();
+        assertEquals("ok", result.safeGetValue().getBody());
+        assertSame(result, second.getResult());
+        assertSame(result, third.getResult());
+        assertEquals(1, mRequestCount.get());
+        assertEquals(0, mGroup.getFlightCount());
+    }
+
+    @Test
+    public void testCanceledByLastWaiter() throws Exception {
+        final Request request = get("/cancel").build();
+        final Deferrable<ResponseString> first = new Deferrable<>();
+        final Deferrable<ResponseString> second = new Deferrable<>();
+        final CountDownLatch joined = new CountDownLatch(2);
+        final Canceller firstCanceller = submit(request, joined, first);
+        final Canceller secondCanceller = submit(request, joined, second);
+        assertTrue(joined.await(10, TimeUnit.SECONDS));
+        awaitRequests(1);
+
+        //The other waiter still needs the call.
+        firstCanceller.cancel();
+        assertTrue(first.getResult().getCancelToken().isCanceled());
+        assertEquals(1, mGroup.getFlightCount());
+        assertEquals(1, mClient.dispatcher().runningCallsCount());
+
+        secondCanceller.cancel();
+        assertTrue(second.getResult().getCancelToken().isCanceled());
+        assertEquals(0, mGroup.getFlightCount());
+        awaitNoRunningCalls();
+        assertEquals(1, mRequestCount.get());
+    }
+
+    private static Deferrable<ResponseString> submit(final HttpTaskAs<ResponseString> task) {
+        final Deferrable<ResponseString> result = new Deferrable<>();
+        task.promise().finish(new FinishCallback<ResponseString>() {
+            @Override
+            public void run(FinishParams<ResponseString> params) {
+                result.setResult(params.asResult());
+            }
+        }).submit();
+        return result;
+    }
+
+    @Test
+    public void testStartFailure() throws Exception {
+        mRelease.countDown();
+        final Request request = get("/executed").build();
+        final Call call = mClient.newCall(request);
+        call.execute().close();
+        //Enqueuing the executed call throws.
+        final HttpTaskAs<ResponseString> executed = new HttpTask(call).asString().singleFlight(mGroup);
+
+        assertTrue(submit(executed).getResult().getException() instanceof IllegalStateException);
+        assertEquals(0, mGroup.getFlightCount());
+        //The failed flight is not joined.
+        assertTrue(submit(executed).getResult().getException() instanceof IllegalStateException);
+        assertEquals("ok", submit(new HttpTask(mClient, request).asString().singleFlight(mGroup)).getResult().safeGetValue().getBody());
+    }
+
+    @Test
+    public void testNotSharingNonGet() throws Exception {
+        final Request post = get("/post").post(RequestBody.create(null, "body")).build();
+        assertNull(join(post));
+        assertNull(join(get("/put").put(RequestBody.create(null, "body")).build()));
+        assertEquals(0, mGroup.getFlightCount());
+    }
+
+    @Test
+    public void testNotSharingDifferentKeys() throws Exception {
+        final Deferred<ResponseString> alice = join(get("/key").header("Authorization", "alice").build());
+        final Deferred<ResponseString> bob = join(get("/key").header("Authorization", "bob").build());
+        final Deferred<ResponseString> other = join(get("/other").header("Authorization", "alice").build());
+        final Deferred<ResponseString> head = join(get("/key").head().header("Authorization", "alice").build());
+        assertEquals(4, mGroup.getFlightCount());
+
+        awaitRequests(4);
+        mRelease.countDown();
+
+        assertEquals("ok", alice.getResult().safeGetValue().getBody());
+        assertEquals("ok", bob.getResult().safeGetValue().getBody());
+        assertEquals("ok", other.getResult().safeGetValue().getBody());
+        assertNotNull(head.getResult().safeGetValue());
+        assertEquals(4, mRequestCount.get());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import tv.loilo.promise.Cancellable;
+import tv.loilo.promise.Deferrable;
+import tv.loilo.promise.Result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpTaskAsRetryTest {
+
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mClient = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    //Counts the results, because the receiver must be called exactly once.
+    private static final class Receiver implements HttpTaskAs.ResultReceiver<ResponseString> {
+        final AtomicInteger mCount = new AtomicInteger();
+        final Deferrable<ResponseString> mFirst = new Deferrable<>();
+
+        @Override
+        public void receive(@NonNull Result<ResponseString> result) {
+            mCount.incrementAndGet();
+            mFirst.setResult(result);
+        }
+    }
+
+    private Cancellable start(final Request request, final HttpRetryPolicy policy, final Receiver receiver) {
+        return new HttpTask(mClient, request).asString().retry(policy).start(receiver);
+    }
+
+    private Request.Builder request(final String path) {
+        return new Request.Builder().url(mServer.url(path));
+    }
+
+    private static HttpRetryPolicy fastPolicy() {
+        return new HttpRetryPolicy().setBackoff(10, 10, 1).setJitter(0);
+    }
+
+    @Test
+    public void testRetrySucceeds() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        mServer.start();
+
+        final Receiver receiver = new Receiver();
+        start(request("/retry").build(), fastPolicy(), receiver);
+
+        assertEquals("ok", receiver.mFirst.getResult().safeGetValue().getBody());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(1, receiver.mCount.get());
+    }
+
+    @Test
+    public void testRetryAfter() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "1"));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        mServer.start();
+
+        final Receiver receiver = new Receiver();
+        final long start = System.nanoTime();
+        start(request("/retry-after").build(), fastPolicy(), receiver);
+
+        assertEquals("ok", receiver.mFirst.getResult().safeGetValue().getBody());
+        //Waits as the header says instead of the 10 ms backoff.
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 900);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testNotRetryingPost() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        mServer.start();
+
+        final Receiver receiver = new Receiver();
+        start(request("/post").post(RequestBody.create(null, "body")).build(), fastPolicy(), receiver);
+
+        final Throwable e = receiver.mFirst.getResult().getException();
+        assertTrue(e instanceof HttpResponseException);
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, receiver.mCount.get());
+    }
+
+    @Test
+    public void testCancelDuringBackoff() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        mServer.start();
+
+        final Receiver receiver = new Receiver();
+        final Cancellable canceller = start(request("/backoff").build(),
+                new HttpRetryPolicy().setBackoff(10000, 10000, 1).setJitter(0), receiver);
+        assertNotNull(mServer.takeRequest(10, TimeUnit.SECONDS));
+        //Lets the 503 reach the client and schedule the retry.
+        Thread.sleep(200);
+
+        canceller.cancel();
+        assertTrue(receiver.mFirst.getResult().getCancelToken().isCanceled());
+        Thread.sleep(200);
+        assertEquals(1, receiver.mCount.get());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void testCancelRacesRetry() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                return new MockResponse().setResponseCode(503);
+            }
+        });
+        mServer.start();
+
+        //The cancel hits the call, the backoff or the retry firing at the same time. Each must deliver exactly one result.
+        final HttpRetryPolicy policy = new HttpRetryPolicy().setMaxAttempts(5).setBackoff(0, 2, 2).setJitter(0);
+        for (int i = 0; i < 50; ++i) {
+            final Receiver receiver = new Receiver();
+            final Cancellable canceller = start(request("/race").build(), policy, receiver);
+            Thread.sleep(i % 5);
+            canceller.cancel();
+
+            final Result<ResponseString> result = receiver.mFirst.getResult();
+            assertTrue(result.getCancelToken().isCanceled() || result.getException() instanceof HttpResponseException);
+            Thread.sleep(20);
+            assertEquals(1, receiver.mCount.get());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ResponseFileWriterTest {
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private File mOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        mOutput = File.createTempFile("response", ".bin");
+        mOutput.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        mOutput.delete();
+    }
+
+    private static byte[] contentOf(final int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    //The body claims the content length regardless of the actual bytes.
+    private static Response responseOf(final int code, final byte[] content, final long contentLength) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/file").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("OK")
+                .body(ResponseBody.create(OCTET_STREAM, contentLength, new Buffer().write(content)))
+                .build();
+    }
+
+    private byte[] readOutput() throws Exception {
+        return Okio.buffer(Okio.source(mOutput)).readByteArray();
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        //Spans several chunks, and the last one is partial.
+        final byte[] content = contentOf(200000);
+        final ResponseFile file = new ResponseFileWriter(mOutput, true, true).pass(responseOf(200, content, content.length));
+
+        assertEquals(content.length, file.getContentLength());
+        assertArrayEquals(content, readOutput());
+    }
+
+    @Test
+    public void testChannelAppends() throws Exception {
+        final byte[] head = contentOf(10);
+        Okio.buffer(Okio.sink(mOutput)).write(head).close();
+
+        final byte[] rest = new byte[]{1, 2, 3, 4, 5};
+        new ResponseFileWriter(mOutput, true, false).pass(responseOf(206, rest, rest.length));
+
+        final byte[] expected = new byte[head.length + rest.length];
+        System.arraycopy(head, 0, expected, 0, head.length);
+        System.arraycopy(rest, 0, expected, head.length, rest.length);
+        assertArrayEquals(expected, readOutput());
+    }
+
+    @Test
+    public void testChannelOverrun() throws Exception {
+        final byte[] content = contentOf(100000);
+        try {
+            new ResponseFileWriter(mOutput, true, false).pass(responseOf(200, content, 70000));
+            fail();
+        } catch (final ProtocolException e) {
+            //Expected.
+        }
+
+        //The written part is kept without the preallocated rest, and nothing is written beyond Content-Length.
+        final long length = mOutput.length();
+        assertEquals(65536, length);
+        final byte[] written = new byte[(int) length];
+        System.arraycopy(content, 0, written, 0, written.length);
+        assertArrayEquals(written, readOutput());
+    }
+
+    @Test
+    public void testChannelTruncated() throws Exception {
+        final byte[] content = contentOf(1000);
+        try {
+            new ResponseFileWriter(mOutput, true, false).pass(responseOf(200, content, 5000));
+            fail();
+        } catch (final ProtocolException e) {
+            //Expected.
+        }
+
+        //The preallocated rest is dropped, so the download can be resumed from the file length.
+        final RandomAccessFile file = new RandomAccessFile(mOutput, "r");
+        try {
+            assertEquals(content.length, file.length());
+        } finally {
+            file.close();
+        }
+        assertArrayEquals(content, readOutput());
+    }
+}
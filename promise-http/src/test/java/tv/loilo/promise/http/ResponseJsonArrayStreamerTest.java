@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResponseJsonArrayStreamerTest {
+
+    private static Response newResponse(String json) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/json"), json))
+                .build();
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        final List<String> elements = new ArrayList<>();
+        final ResponseJsonArrayStream response = new ResponseJsonArrayStreamer<>(ResponseJsonArrayStreamer.jsonElementAdapter(), new JsonArrayCallback<JsonElement>() {
+            @Override
+            public void onElement(int index, JsonElement element) throws Exception {
+                elements.add(index + ":" + element);
+            }
+        }, false).pass(newResponse("[1, \"a\", {\"b\": [2]}, null]"));
+
+        assertEquals(4, (int) response.getBody());
+        assertEquals("[0:1, 1:\"a\", 2:{\"b\":[2]}, 3:null]", elements.toString());
+    }
+
+    @Test
+    public void testQueue() throws Exception {
+        final ArrayBlockingQueue<Item> queue = new ArrayBlockingQueue<>(4);
+        final ResponseJsonArrayStream response = new ResponseJsonArrayStreamer<>(new Gson().getAdapter(Item.class), queue, false)
+                .pass(newResponse("[{\"name\": \"x\"}, null, {\"name\": \"y\"}]"));
+
+        assertEquals(3, (int) response.getBody());
+        assertEquals(2, queue.size());
+        assertEquals("x", queue.take().name);
+        assertEquals("y", queue.take().name);
+    }
+
+    static final class Item {
+        String name;
+    }
+}
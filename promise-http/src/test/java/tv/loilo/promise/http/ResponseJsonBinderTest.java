@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseJsonBinderTest {
+
+    private static Response newResponse(String json) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://localhost/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/json"), json))
+                .build();
+    }
+
+    @Test
+    public void testBindClass() throws Exception {
+        final ResponseAs<Item> response = new ResponseJsonBinder<>(TypeToken.get(Item.class), false)
+                .pass(newResponse("{\"name\": \"x\", \"count\": 3}"));
+        assertEquals("x", response.getBody().name);
+        assertEquals(3, response.getBody().count);
+    }
+
+    @Test
+    public void testBindTypeToken() throws Exception {
+        final ResponseAs<List<String>> response = new ResponseJsonBinder<>(new TypeToken<List<String>>() {
+        }, false).pass(newResponse("[\"a\", \"b\"]"));
+        assertEquals(Arrays.asList("a", "b"), response.getBody());
+    }
+
+    @Test
+    public void testEmptyBody() throws Exception {
+        final ResponseAs<Item> response = new ResponseJsonBinder<>(TypeToken.get(Item.class), false).pass(newResponse(""));
+        assertNull(response.getBody());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testTrailingData() throws Exception {
+        new ResponseJsonBinder<>(TypeToken.get(Item.class), false).pass(newResponse("{\"name\": \"x\"} {}"));
+    }
+
+    static final class Item {
+        String name;
+        int count;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedFileWriterTest {
+
+    private static final int LENGTH = 10000;
+    private static final String ETAG = "\"v1\"";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] mContent = new byte[LENGTH];
+    //The Range header of each request, or null for the request without it.
+    private final List<String> mRanges = Collections.synchronizedList(new ArrayList<String>());
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+    private File mOutput;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < LENGTH; ++i) {
+            mContent[i] = (byte) (i * 31);
+        }
+        mServer = new MockWebServer();
+        mClient = new OkHttpClient();
+        mOutput = File.createTempFile("segmented", ".bin");
+        mOutput.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        new File(mOutput.getPath() + ".segments").delete();
+    }
+
+    private void startServer(final boolean acceptsRanges) throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                final String range = request.getHeader("Range");
+                mRanges.add(range);
+                if (range == null || !acceptsRanges) {
+                    final MockResponse response = new MockResponse()
+                            .setBody(new Buffer().write(mContent))
+                            .setHeader("ETag", ETAG);
+                    return acceptsRanges ? response.setHeader("Accept-Ranges", "bytes") : response;
+                }
+
+                final Matcher matcher = RANGE.matcher(range);
+                if (!matcher.matches() || !ETAG.equals(request.getHeader("If-Range"))) {
+                    return new MockResponse().setResponseCode(416);
+                }
+                final int start = Integer.parseInt(matcher.group(1));
+                final int end = Integer.parseInt(matcher.group(2));
+                return new MockResponse()
+                        .setResponseCode(206)
+                        .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + LENGTH)
+                        .setHeader("ETag", ETAG)
+                        .setBody(new Buffer().write(mContent, start, end - start + 1));
+            }
+        });
+        mServer.start();
+    }
+
+    private ResponseFile download() throws Exception {
+        final Request request = new Request.Builder().url(mServer.url("/file")).build();
+        return new SegmentedFileWriter(mClient, mOutput, 4, 1000).pass(mClient.newCall(request).execute());
+    }
+
+    private byte[] readOutput() throws Exception {
+        return Okio.buffer(Okio.source(mOutput)).readByteArray();
+    }
+
+    @Test
+    public void testSegments() throws Exception {
+        startServer(true);
+
+        final ResponseFile file = download();
+
+        assertEquals(LENGTH, file.getContentLength());
+        assertArrayEquals(mContent, readOutput());
+        //The original request and the ranges of the other 3 segments.
+        assertEquals(4, mRanges.size());
+        assertNull(mRanges.get(0));
+        assertFalse(new File(mOutput.getPath() + ".segments").exists());
+    }
+
+    @Test
+    public void testRangeNotSupported() throws Exception {
+        startServer(false);
+
+        download();
+
+        assertArrayEquals(mContent, readOutput());
+        assertEquals(1, mRanges.size());
+        assertFalse(new File(mOutput.getPath() + ".segments").exists());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        startServer(true);
+
+        //The first 3000 bytes of the first half and the first 1000 bytes of the second half are already written.
+        final RandomAccessFile file = new RandomAccessFile(mOutput, "rw");
+        try {
+            file.setLength(LENGTH);
+            file.write(mContent, 0, 3000);
+            file.seek(5000);
+            file.write(mContent, 5000, 1000);
+        } finally {
+            file.close();
+        }
+        Okio.buffer(Okio.sink(new File(mOutput.getPath() + ".segments")))
+                .writeUtf8("loilo-promise-segments 1\n" + LENGTH + "\n" + ETAG + "\n2\n0 5000 3000\n5000 10000 1000\n")
+                .close();
+
+        download();
+
+        assertArrayEquals(mContent, readOutput());
+        //Only the rest of each segment is requested.
+        assertEquals(3, mRanges.size());
+        assertNull(mRanges.get(0));
+        assertTrue(mRanges.contains("bytes=3000-4999"));
+        assertTrue(mRanges.contains("bytes=6000-9999"));
+        assertFalse(new File(mOutput.getPath() + ".segments").exists());
+    }
+
+    @Test
+    public void testNotBlockedByHostLimit() throws Exception {
+        startServer(true);
+        final okhttp3.Dispatcher dispatcher = new okhttp3.Dispatcher();
+        dispatcher.setMaxRequestsPerHost(1);
+        final OkHttpClient client = mClient.newBuilder().dispatcher(dispatcher).build();
+        final SegmentedFileWriter writer = new SegmentedFileWriter(client, mOutput, 4, 1000);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        //Reads in the callback holding the only slot of the host, as HttpTaskAs does.
+        client.newCall(new Request.Builder().url(mServer.url("/file")).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                error.set(e);
+                done.countDown();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    writer.pass(response);
+                } catch (final Throwable e) {
+                    error.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertArrayEquals(mContent, readOutput());
+    }
+}
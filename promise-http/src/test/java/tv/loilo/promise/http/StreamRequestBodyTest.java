@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import tv.loilo.promise.CancelToken;
+import tv.loilo.promise.ProgressReporter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class StreamRequestBodyTest {
+
+    private static byte[] newBytes(int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static File newFile(byte[] bytes) throws Exception {
+        final File file = File.createTempFile("upload", ".bin");
+        file.deleteOnExit();
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testFileFromOffset() throws Exception {
+        final byte[] bytes = newBytes(10000);
+        final List<Long> reported = new ArrayList<>();
+        final StreamRequestBody body = StreamRequestBody.fromFile(null, newFile(bytes), 3000, -1)
+                .setChunkSize(1000)
+                .setReporter(new ProgressReporter<HttpProgress>() {
+                    @Override
+                    public void report(HttpProgress progress) {
+                        reported.add(progress.getBytesProceeded());
+                        assertEquals(10000L, progress.getContentLength());
+                    }
+                });
+        assertEquals(7000L, body.contentLength());
+
+        final Buffer sink = new Buffer();
+        body.writeTo(sink);
+
+        final byte[] expected = new byte[7000];
+        System.arraycopy(bytes, 3000, expected, 0, expected.length);
+        assertArrayEquals(expected, sink.readByteArray());
+        //Every chunk, counted from the offset.
+        assertEquals(7, reported.size());
+        assertEquals(4000L, (long) reported.get(0));
+        assertEquals(10000L, (long) reported.get(6));
+    }
+
+    @Test
+    public void testCancelBetweenChunks() throws Exception {
+        final List<Long> reported = new ArrayList<>();
+        final StreamRequestBody body = StreamRequestBody.fromFile(null, newFile(newBytes(10000)))
+                .setChunkSize(1000)
+                .setCancelToken(new CancelToken() {
+                    @Override
+                    public boolean isCanceled() {
+                        return reported.size() >= 2;
+                    }
+                })
+                .setReporter(new ProgressReporter<HttpProgress>() {
+                    @Override
+                    public void report(HttpProgress progress) {
+                        reported.add(progress.getBytesProceeded());
+                    }
+                });
+
+        final Buffer sink = new Buffer();
+        try {
+            body.writeTo(sink);
+            fail();
+        } catch (final InterruptedIOException e) {
+            assertEquals(2000L, sink.size());
+        }
+    }
+
+    @Test
+    public void testStreamEndsEarly() throws Exception {
+        final StreamRequestBody body = StreamRequestBody.fromStream(null, new ByteArrayInputStream(newBytes(100)), 200);
+        try {
+            body.writeTo(new Buffer());
+            fail();
+        } catch (final EOFException e) {
+            //Expected.
+        }
+    }
+
+    @Test
+    public void testStreamWrittenOnce() throws Exception {
+        final StreamRequestBody body = StreamRequestBody.fromStream(null, new ByteArrayInputStream(newBytes(100)), -1);
+        final Buffer sink = new Buffer();
+        body.writeTo(sink);
+        assertEquals(100L, sink.size());
+        try {
+            body.writeTo(new Buffer());
+            fail();
+        } catch (final IllegalStateException e) {
+            //Expected.
+        }
+    }
+}
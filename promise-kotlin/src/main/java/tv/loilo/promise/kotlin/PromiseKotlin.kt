@@ -108,6 +108,18 @@ fun <T> callOnBg(process: () -> T): Deferred<T> {
     return Dispatcher.getSubDispatcher().call(process)
 }
 
+fun runOnBg(key: Any, process: () -> Unit) {
+    DispatcherPool.getDefault().getDispatcher(key).run(process)
+}
+
+fun postOnBg(key: Any, process: () -> Unit) {
+    DispatcherPool.getDefault().getDispatcher(key).post(process)
+}
+
+fun <T> callOnBg(key: Any, process: () -> T): Deferred<T> {
+    return DispatcherPool.getDefault().getDispatcher(key).call(process)
+}
+
 fun <T> promiseWhen(f: (WhenParams) -> Deferred<T>): Promise<T> {
     return Promises.`when`(f)
 }
@@ -35,8 +35,6 @@ import com.google.gson.JsonElement;
 import java.util.ArrayList;
 import java.util.List;
 
-import okhttp3.Call;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import tv.loilo.promise.Defer;
 import tv.loilo.promise.Deferred;
@@ -81,10 +79,8 @@ public class MainActivity extends AppCompatActivity {
                     return Promises.when(new WhenCallback<ResponseJsonArray>() {
                         @Override
                         public Deferred<ResponseJsonArray> run(final WhenParams params) throws Exception {
-                            final OkHttpClient client = new OkHttpClient();
                             final Request req = new Request.Builder().url("https://raw.githubusercontent.com/loilo-inc/loilo-promise/master/promise-samples-http/src/androidTest/assets/sample.json").get().build();
-                            final Call call = client.newCall(req);
-                            return new HttpTask(call).setOnResponseListener(new OnResponseListener() {
+                            return new HttpTask(req).setOnResponseListener(new OnResponseListener() {
                                 @Override
                                 public void onResponse(ResponseUnit response) {
                                     Log.d("promise-samples-http", response.toString());
@@ -94,7 +90,7 @@ public class MainActivity extends AppCompatActivity {
                                 public void report(HttpProgress httpProgress) {
                                     loader.reportProgress(new Transfer<>(params, httpProgress));
                                 }
-                            }).promise().get(params);
+                            }, 100, 0, 10).promise().get(params);
                         }
                     }).succeeded(new SuccessCallback<ResponseJsonArray, List<String>>() {
                         @Override
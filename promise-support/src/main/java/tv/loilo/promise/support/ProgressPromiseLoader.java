@@ -22,6 +22,8 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import tv.loilo.promise.Dispatcher;
 import tv.loilo.promise.Promise;
 import tv.loilo.promise.Result;
@@ -35,6 +37,9 @@ public abstract class ProgressPromiseLoader<TData, TProgress> extends PromiseLoa
     @Nullable
     private TProgress mProgressCache;
 
+    //The latest progress not delivered yet. The delivery is posted only when it was empty.
+    private final AtomicReference<Transfer<TProgress>> mPendingProgress = new AtomicReference<>();
+
     public ProgressPromiseLoader(Context context) {
         super(context);
     }
@@ -129,14 +134,23 @@ public abstract class ProgressPromiseLoader<TData, TProgress> extends PromiseLoa
         mProgressCache = null;
     }
 
+    /**
+     * Delivers the progress on the main thread.
+     * The progress reported before the previous one is delivered replaces it,
+     * so only the latest progress is queued.
+     */
     public void reportProgress(@NonNull final Transfer<TProgress> transferProgress) {
+        if (mPendingProgress.getAndSet(transferProgress) != null) {
+            return;
+        }
         Dispatcher.getMainDispatcher().run(new Runnable() {
             @Override
             public void run() {
-                if (transferProgress.getCancelToken().isCanceled()) {
+                final Transfer<TProgress> latest = mPendingProgress.getAndSet(null);
+                if (latest == null || latest.getCancelToken().isCanceled()) {
                     return;
                 }
-                mProgressCache = transferProgress.getData();
+                mProgressCache = latest.getData();
                 notifyProgress();
             }
         });
@@ -16,6 +16,7 @@
 
 package tv.loilo.promise;
 
+import android.os.Looper;
 import android.support.test.runner.AndroidJUnit4;
 import android.util.Log;
 
@@ -23,11 +24,14 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.assertEquals;
@@ -821,6 +825,49 @@ public class PromisesTest {
         assertEquals("B", results.get(1));
     }
 
+    @Test
+    public void testWhenAllFailed() throws Exception {
+        final ManualResetEvent noSignal = new ManualResetEvent(false);
+        final Deferrable<List<String>> deferrable = new Deferrable<>();
+
+        Promises.whenAll(Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                noSignal.await();
+                return Defer.success("A");
+            }
+        }), Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                throw new IllegalStateException("B");
+            }
+        })).finish(new FinishCallback<List<String>>() {
+            @Override
+            public void run(FinishParams<List<String>> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        //The failure cancels the waiting sibling, so the result is available without the signal.
+        final Exception e = deferrable.getResult().getException();
+        assertTrue(e instanceof IllegalStateException);
+        assertEquals("B", e.getMessage());
+    }
+
+    @Test
+    public void testWhenAllEmpty() throws Exception {
+        final Deferrable<List<String>> deferrable = new Deferrable<>();
+
+        Promises.<String>whenAll().finish(new FinishCallback<List<String>>() {
+            @Override
+            public void run(FinishParams<List<String>> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        assertTrue(deferrable.getResult().safeGetValue().isEmpty());
+    }
+
     @Test
     public void testWhenAny() throws Exception {
         final ManualResetEvent noSignal = new ManualResetEvent(false);
@@ -859,4 +906,853 @@ public class PromisesTest {
         assertTrue(aborted.await(20, TimeUnit.SECONDS));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNonBlockingContinuation() throws Exception {
+        Promises.setNonBlockingContinuationEnabled(true);
+        try {
+            final ExecutorService executor = Executors.newSingleThreadExecutor();
+            final Deferrable<String> pending = new Deferrable<>();
+            final Deferrable<String> deferrable1 = new Deferrable<>();
+            final Deferrable<String> deferrable2 = new Deferrable<>();
+
+            Promises.when(new WhenCallback<String>() {
+                @Override
+                public Deferred<String> run(WhenParams params) throws Exception {
+                    return pending;
+                }
+            }).then(new ThenCallback<String, String>() {
+                @Override
+                public Deferred<String> run(ThenParams<String> params) throws Exception {
+                    return Defer.success(params.safeGetValue() + " 1");
+                }
+            }).finish(new FinishCallback<String>() {
+                @Override
+                public void run(FinishParams<String> params) {
+                    deferrable1.setResult(params.asResult());
+                }
+            }).submitOn(executor);
+
+            //The single thread is not blocked by the pending promise.
+            Promises.when(new WhenCallback<String>() {
+                @Override
+                public Deferred<String> run(WhenParams params) throws Exception {
+                    return Defer.success("Hello Promise 2");
+                }
+            }).finish(new FinishCallback<String>() {
+                @Override
+                public void run(FinishParams<String> params) {
+                    deferrable2.setResult(params.asResult());
+                }
+            }).submitOn(executor);
+
+            assertEquals("Hello Promise 2", deferrable2.getResult().safeGetValue());
+
+            pending.setSucceeded("Hello Promise");
+
+            assertEquals("Hello Promise 1", deferrable1.getResult().safeGetValue());
+        } finally {
+            Promises.setNonBlockingContinuationEnabled(false);
+        }
+    }
+
+    @Test
+    public void testNonBlockingContinuationCancel() throws Exception {
+        Promises.setNonBlockingContinuationEnabled(true);
+        try {
+            final Deferrable<String> pending = new Deferrable<>();
+            pending.setCancellable(new Cancellable() {
+                @Override
+                public void cancel() {
+                    pending.setCanceled();
+                }
+            });
+            final Deferrable<String> deferrable = new Deferrable<>();
+            final CountDownLatch latch = new CountDownLatch(1);
+
+            final Canceller canceller = Promises.when(new WhenCallback<String>() {
+                @Override
+                public Deferred<String> run(WhenParams params) throws Exception {
+                    return Promises.when(new WhenCallback<String>() {
+                        @Override
+                        public Deferred<String> run(WhenParams params) throws Exception {
+                            latch.countDown();
+                            return pending;
+                        }
+                    }).get(params);
+                }
+            }).finish(new FinishCallback<String>() {
+                @Override
+                public void run(FinishParams<String> params) {
+                    deferrable.setResult(params.asResult());
+                }
+            }).submit();
+
+            latch.await();
+
+            canceller.cancel();
+
+            assertTrue(deferrable.getResult().getCancelToken().isCanceled());
+        } finally {
+            Promises.setNonBlockingContinuationEnabled(false);
+        }
+    }
+
+    @Test
+    public void testPassThroughCompletedResult() throws Exception {
+        assertTrue(Defer.<String>cancel() == Defer.<String>cancel());
+        assertTrue(Defer.<String>success(null) == Defer.<String>success(null));
+
+        final Deferrable<Result<String>> passed = new Deferrable<>();
+        final Deferrable<Result<String>> finished = new Deferrable<>();
+
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                return Defer.success("Hello");
+            }
+        }).then(new ThenCallback<String, String>() {
+            @Override
+            public Deferred<String> run(ThenParams<String> params) throws Exception {
+                passed.setSucceeded(params.asResult());
+                return params.asDeferred();
+            }
+        }).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                finished.setSucceeded(params.asResult());
+            }
+        }).submit();
+
+        final Result<String> result = finished.getResult().safeGetValue();
+        assertEquals("Hello", result.safeGetValue());
+        assertTrue(passed.getResult().safeGetValue() == result);
+    }
+
+    @Test
+    public void testPromiseExecutor() throws Exception {
+        final PromiseExecutor[] executors = {
+                PromiseExecutor.newBounded("test-bounded", 2),
+                PromiseExecutor.newWorkStealing("test-stealing", 2)
+        };
+        Promises.setNonBlockingContinuationEnabled(true);
+        try {
+            for (final PromiseExecutor executor : executors) {
+                Promises.setDefaultExecutorService(executor);
+                assertTrue(Promises.getDefaultExecutorService() == executor);
+
+                final Deferrable<String> deferrable = new Deferrable<>();
+                Promises.when(new WhenCallback<String>() {
+                    @Override
+                    public Deferred<String> run(WhenParams params) throws Exception {
+                        return Defer.success(Thread.currentThread().getName());
+                    }
+                }).finish(new FinishCallback<String>() {
+                    @Override
+                    public void run(FinishParams<String> params) {
+                        deferrable.setResult(params.asResult());
+                    }
+                }).submit();
+
+                assertTrue(deferrable.getResult().safeGetValue().startsWith("test-"));
+                assertTrue(executor.getSubmittedCount() >= 1);
+
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+                assertEquals(executor.getSubmittedCount(), executor.getCompletedCount());
+                assertEquals(0, executor.getActiveCount());
+                assertEquals(0, executor.getQueuedCount());
+            }
+        } finally {
+            Promises.setDefaultExecutorService(null);
+            Promises.setNonBlockingContinuationEnabled(false);
+        }
+    }
+
+    @Test
+    public void testSchedulerConcurrency() throws Exception {
+        final int maxThreads = 3;
+        final int taskCount = 100;
+        final Scheduler scheduler = new Scheduler(maxThreads);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(taskCount);
+        final ManualResetEvent blocker = new ManualResetEvent(false);
+
+        final Deferrable<String> blocked = new Deferrable<>();
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                blocker.await();
+                return Defer.success("Hello Promise");
+            }
+        }).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                blocked.setResult(params.asResult());
+            }
+        }).submitOn(scheduler);
+
+        for (int i = 0; i < taskCount; ++i) {
+            Promises.when(new WhenCallback<Integer>() {
+                @Override
+                public Deferred<Integer> run(WhenParams params) throws Exception {
+                    final int current = running.incrementAndGet();
+                    for (; ; ) {
+                        final int max = maxRunning.get();
+                        if (current <= max || maxRunning.compareAndSet(max, current)) {
+                            break;
+                        }
+                    }
+                    Thread.sleep(1);
+                    running.decrementAndGet();
+                    return Defer.success(current);
+                }
+            }).finish(new FinishCallback<Integer>() {
+                @Override
+                public void run(FinishParams<Integer> params) {
+                    latch.countDown();
+                }
+            }).submitOn(scheduler);
+        }
+
+        //The pending task is given up without running.
+        final AtomicInteger ranCount = new AtomicInteger();
+        final Deferrable<String> canceled = new Deferrable<>();
+        final Canceller canceller = Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                ranCount.incrementAndGet();
+                return Defer.success("Hello Promise");
+            }
+        }).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                canceled.setResult(params.asResult());
+            }
+        }).submitOn(scheduler);
+        canceller.cancel();
+
+        assertTrue(canceled.getResult().getCancelToken().isCanceled());
+
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= maxThreads - 1);
+        assertEquals(0, ranCount.get());
+
+        blocker.set();
+        assertEquals("Hello Promise", blocked.getResult().safeGetValue());
+    }
+
+    private static Canceller submitRecorder(final String name, final List<String> order, final CountDownLatch latch,
+                                            final Scheduler scheduler, final int priority, final long deadlineMillis) {
+        return Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                synchronized (order) {
+                    order.add(name);
+                }
+                return Defer.success(name);
+            }
+        }).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                latch.countDown();
+            }
+        }).submitOn(scheduler, null, priority, deadlineMillis);
+    }
+
+    @Test
+    public void testSchedulerPriorityAndDeadline() throws Exception {
+        final Scheduler scheduler = new Scheduler(1, 0);
+        final List<String> order = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(6);
+        final ManualResetEvent blocker = new ManualResetEvent(false);
+
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                blocker.await();
+                return Defer.success("Hello Promise");
+            }
+        }).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                latch.countDown();
+            }
+        }).submitOn(scheduler);
+
+        submitRecorder("low1", order, latch, scheduler, -1, Scheduler.NO_DEADLINE);
+        submitRecorder("low2", order, latch, scheduler, -1, Scheduler.NO_DEADLINE);
+        submitRecorder("default", order, latch, scheduler, Scheduler.PRIORITY_DEFAULT, Scheduler.NO_DEADLINE);
+        submitRecorder("high", order, latch, scheduler, 5, Scheduler.NO_DEADLINE);
+        submitRecorder("expired", order, latch, scheduler, 10, 10);
+
+        Thread.sleep(100);
+        blocker.set();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("[high, default, low1, low2]", order.toString());
+    }
+
+    @Test
+    public void testSchedulerJobFinishingInPlace() throws Exception {
+        //A job may call postProcess inside doWork. Its slot must be released, or the scheduler stalls.
+        final Scheduler scheduler = new Scheduler(2);
+        final AtomicInteger doneCount = new AtomicInteger();
+        final Job job = new Job() {
+            @Override
+            public Canceller doWork(Object tag, Runnable postProcess) {
+                doneCount.incrementAndGet();
+                postProcess.run();
+                return null;
+            }
+
+            @Override
+            public void giveUp(Object tag) {
+            }
+        };
+
+        for (int i = 0; i < 100; ++i) {
+            scheduler.post(job, null);
+        }
+        assertEquals(100, doneCount.get());
+    }
+
+    @Test
+    public void testSchedulerDeadlineWhileBlocked() throws Exception {
+        final Scheduler scheduler = new Scheduler(1, 0);
+        final ManualResetEvent blocker = new ManualResetEvent(false);
+        final Deferrable<String> expired = new Deferrable<>();
+
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                blocker.await();
+                return Defer.success("Hello Promise");
+            }
+        }).submitOn(scheduler);
+
+        Promises.success("expired").finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                expired.setResult(params.asResult());
+            }
+        }).submitOn(scheduler, null, Scheduler.PRIORITY_DEFAULT, 50);
+
+        try {
+            //Given up on the deadline, though no task is posted or finished in the meantime.
+            final long start = System.nanoTime();
+            assertTrue(expired.getResult().getCancelToken().isCanceled());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        } finally {
+            blocker.set();
+        }
+    }
+
+    @Test
+    public void testSchedulerAging() throws Exception {
+        final Scheduler scheduler = new Scheduler(1, 10);
+        final List<String> order = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        final ManualResetEvent blocker = new ManualResetEvent(false);
+
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                blocker.await();
+                return Defer.success("Hello Promise");
+            }
+        }).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                latch.countDown();
+            }
+        }).submitOn(scheduler);
+
+        submitRecorder("old", order, latch, scheduler, -1, Scheduler.NO_DEADLINE);
+        Thread.sleep(100);
+        submitRecorder("new", order, latch, scheduler, 2, Scheduler.NO_DEADLINE);
+        blocker.set();
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("[old, new]", order.toString());
+    }
+
+    @Test
+    public void testVirtualThreadExecutor() throws Exception {
+        final PromiseExecutor executor = PromiseExecutor.newVirtualThreadPerTask("test-virtual");
+        try {
+            final Deferrable<String> deferrable = new Deferrable<>();
+            Promises.when(new WhenCallback<String>() {
+                @Override
+                public Deferred<String> run(WhenParams params) throws Exception {
+                    return Defer.success(Thread.currentThread().getName());
+                }
+            }).finish(new FinishCallback<String>() {
+                @Override
+                public void run(FinishParams<String> params) {
+                    deferrable.setResult(params.asResult());
+                }
+            }).submitOn(executor);
+
+            //Runs on virtual threads if supported, otherwise on the cached thread pool.
+            assertTrue(deferrable.getResult().safeGetValue().startsWith("test-virtual-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMapParallel() throws Exception {
+        final List<Integer> elements = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            elements.add(i);
+        }
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final Deferrable<List<String>> deferrable = new Deferrable<>();
+
+        Promises.mapParallel(elements, 4, new MapCallback<Integer, String>() {
+            @Override
+            public Promise<String> run(final MapParams<Integer> params) throws Exception {
+                assertEquals(params.getIndex(), (int) params.getValue());
+                return Promises.when(new WhenCallback<String>() {
+                    @Override
+                    public Deferred<String> run(WhenParams unused) throws Exception {
+                        final int current = running.incrementAndGet();
+                        for (; ; ) {
+                            final int max = maxRunning.get();
+                            if (current <= max || maxRunning.compareAndSet(max, current)) {
+                                break;
+                            }
+                        }
+                        //Later elements finish earlier.
+                        Thread.sleep(50 - params.getValue());
+                        running.decrementAndGet();
+                        return Defer.success("v" + params.getValue());
+                    }
+                });
+            }
+        }).finish(new FinishCallback<List<String>>() {
+            @Override
+            public void run(FinishParams<List<String>> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        final List<String> results = deferrable.getResult().safeGetValue();
+        assertEquals(50, results.size());
+        for (int i = 0; i < 50; ++i) {
+            assertEquals("v" + i, results.get(i));
+        }
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testMapParallelFailed() throws Exception {
+        final AtomicInteger pulled = new AtomicInteger();
+        final Iterator<Integer> iterator = new Iterator<Integer>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Integer next() {
+                return pulled.getAndIncrement();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final Deferrable<List<Integer>> deferrable = new Deferrable<>();
+
+        Promises.mapParallel(iterator, 1, new MapCallback<Integer, Integer>() {
+            @Override
+            public Promise<Integer> run(final MapParams<Integer> params) throws Exception {
+                if (params.getValue() == 3) {
+                    return Promises.fail(new IllegalStateException("3"));
+                }
+                return Promises.success(params.getValue());
+            }
+        }).finish(new FinishCallback<List<Integer>>() {
+            @Override
+            public void run(FinishParams<List<Integer>> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        final Exception e = deferrable.getResult().getException();
+        assertTrue(e instanceof IllegalStateException);
+        //Stops pulling at the failure in spite of the endless iterator.
+        assertEquals(4, pulled.get());
+    }
+
+    @Test
+    public void testCancelTokenSource() throws Exception {
+        final CancelTokenSource parent = new CancelTokenSource();
+        final CancelTokenSource child = new CancelTokenSource(parent);
+        final AtomicInteger called = new AtomicInteger();
+        final AtomicInteger unregistered = new AtomicInteger();
+
+        child.register(new Runnable() {
+            @Override
+            public void run() {
+                called.incrementAndGet();
+            }
+        });
+        child.register(new Runnable() {
+            @Override
+            public void run() {
+                unregistered.incrementAndGet();
+            }
+        }).close();
+
+        parent.cancel();
+        parent.cancel();
+        assertTrue(child.isCanceled());
+        assertEquals(1, called.get());
+        assertEquals(0, unregistered.get());
+
+        //Called immediately after canceled.
+        child.register(new Runnable() {
+            @Override
+            public void run() {
+                called.incrementAndGet();
+            }
+        });
+        assertEquals(2, called.get());
+
+        //The closed child is not canceled by the parent.
+        final CancelTokenSource other = new CancelTokenSource();
+        final CancelTokenSource closed = new CancelTokenSource(other);
+        closed.close();
+        other.cancel();
+        assertFalse(closed.isCanceled());
+    }
+
+    @Test
+    public void testCancelTokenRegistration() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean wokenByCallback = new AtomicBoolean();
+        final Deferrable<Boolean> deferrable = new Deferrable<>();
+
+        final Canceller canceller = Promises.when(new WhenCallback<Boolean>() {
+            @Override
+            public Deferred<Boolean> run(WhenParams params) throws Exception {
+                final CountDownLatch woken = new CountDownLatch(1);
+                params.getScope().push(CancelTokens.register(params.getCancelToken(), new Runnable() {
+                    @Override
+                    public void run() {
+                        woken.countDown();
+                    }
+                }));
+                started.countDown();
+                //Blocks without the interruption, and is woken by the callback.
+                boolean isWoken = false;
+                while (!isWoken) {
+                    try {
+                        isWoken = woken.await(10, TimeUnit.SECONDS);
+                        break;
+                    } catch (final InterruptedException e) {
+                        //Ignores the interruption.
+                    }
+                }
+                wokenByCallback.set(isWoken);
+                return Defer.success(isWoken);
+            }
+        }).finish(new FinishCallback<Boolean>() {
+            @Override
+            public void run(FinishParams<Boolean> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        canceller.cancel();
+        assertTrue(deferrable.getResult().getCancelToken().isCanceled());
+        assertTrue(wokenByCallback.get());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final CountDownLatch isInterrupted = new CountDownLatch(1);
+        final Deferrable<String> deferrable = new Deferrable<>();
+
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                try {
+                    Thread.sleep(10000);
+                } catch (final InterruptedException e) {
+                    isInterrupted.countDown();
+                    throw e;
+                }
+                return Defer.success("late");
+            }
+        }).timeout(100).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        final long start = System.nanoTime();
+        final Result<String> result = deferrable.getResult();
+        assertTrue(result.getException() instanceof PromiseTimeoutException);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        //The result does not wait for the upstream, but the upstream is still interrupted.
+        assertTrue(isInterrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTimeoutNotExpired() throws Exception {
+        final Deferrable<String> deferrable = new Deferrable<>();
+
+        Promises.success("in time").timeout(10000).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        assertEquals("in time", deferrable.getResult().safeGetValue());
+    }
+
+    @Test
+    public void testTimeoutUpstreamIgnoresCancel() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Deferrable<String> deferrable = new Deferrable<>();
+
+        Promises.when(new WhenCallback<String>() {
+            @Override
+            public Deferred<String> run(WhenParams params) throws Exception {
+                //Does not observe the cancellation nor the interruption.
+                while (true) {
+                    try {
+                        release.await();
+                        break;
+                    } catch (final InterruptedException e) {
+                        //Ignored.
+                    }
+                }
+                return Defer.success("late");
+            }
+        }).timeout(100).finish(new FinishCallback<String>() {
+            @Override
+            public void run(FinishParams<String> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        try {
+            final long start = System.nanoTime();
+            final Result<String> result = deferrable.getResult();
+            assertTrue(result.getException() instanceof PromiseTimeoutException);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testTimeoutSubmittedTwice() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final Deferrable<Object> first = new Deferrable<>();
+        final Deferrable<Object> second = new Deferrable<>();
+
+        final Submittable submittable = Promises.when(new WhenCallback<Object>() {
+            @Override
+            public Deferred<Object> run(WhenParams params) throws Exception {
+                //Both of the runs are in flight at once.
+                started.countDown();
+                started.await();
+                return Defer.success(params.getTag());
+            }
+        }).timeout(10000).finish(new FinishCallback<Object>() {
+            @Override
+            public void run(FinishParams<Object> params) {
+                final Deferrable<Object> deferrable = "first".equals(params.getTag()) ? first : second;
+                deferrable.setResult(params.asResult());
+            }
+        });
+        submittable.submit("first");
+        submittable.submit("second");
+
+        assertEquals("first", first.getResult().safeGetValue());
+        assertEquals("second", second.getResult().safeGetValue());
+    }
+
+    @Test
+    public void testTimeoutDeadlineTravels() throws Exception {
+        final Deferrable<Long> deferrable = new Deferrable<>();
+
+        Promises.when(new WhenCallback<Long>() {
+            @Override
+            public Deferred<Long> run(WhenParams params) throws Exception {
+                //The nested promise inherits the deadline of the outer one through the params.
+                return Promises.when(new WhenCallback<Long>() {
+                    @Override
+                    public Deferred<Long> run(WhenParams nestedParams) throws Exception {
+                        return Defer.success(CancelTokens.getRemainingMillis(nestedParams.getCancelToken()));
+                    }
+                }).timeout(60000).get(params);
+            }
+        }).timeout(5000).finish(new FinishCallback<Long>() {
+            @Override
+            public void run(FinishParams<Long> params) {
+                deferrable.setResult(params.asResult());
+            }
+        }).submit();
+
+        final long remaining = deferrable.getResult().safeGetValue();
+        assertTrue(remaining > 0);
+        assertTrue(remaining <= 5000);
+    }
+
+    @Test
+    public void testCancelRace() throws Exception {
+        //Races the launch and the cancel. Each chain must finish exactly once, with the value or canceled.
+        final int count = 5000;
+        final ExecutorService cancelExecutor = Executors.newFixedThreadPool(2);
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger succeeded = new AtomicInteger();
+        final AtomicInteger canceled = new AtomicInteger();
+        final CountDownLatch allFinished = new CountDownLatch(count);
+
+        try {
+            for (int i = 0; i < count; ++i) {
+                final Canceller canceller = Promises.when(new WhenCallback<Integer>() {
+                    @Override
+                    public Deferred<Integer> run(WhenParams params) throws Exception {
+                        return Defer.success(1);
+                    }
+                }).finish(new FinishCallback<Integer>() {
+                    @Override
+                    public void run(FinishParams<Integer> params) {
+                        if (params.getCancelToken().isCanceled()) {
+                            canceled.incrementAndGet();
+                        } else if (params.getValue() == 1) {
+                            succeeded.incrementAndGet();
+                        }
+                        finished.incrementAndGet();
+                        allFinished.countDown();
+                    }
+                }).submit();
+
+                if (i % 2 == 0) {
+                    canceller.cancel();
+                } else {
+                    cancelExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            canceller.cancel();
+                            canceller.cancel();
+                        }
+                    });
+                }
+            }
+
+            assertTrue(allFinished.await(30, TimeUnit.SECONDS));
+            //Waits for the duplicated finish if any.
+            Thread.sleep(100);
+            assertEquals(count, finished.get());
+            assertEquals(count, succeeded.get() + canceled.get());
+        } finally {
+            cancelExecutor.shutdown();
+        }
+    }
+
+    private static List<String> runBatches(final long budgetMillis) throws Exception {
+        final Dispatcher plain = Dispatcher.getMainDispatcher();
+        final Dispatcher batching = Dispatcher.newBatching(Looper.getMainLooper(), budgetMillis);
+        final List<String> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(4);
+
+        plain.post(new Runnable() {
+            @Override
+            public void run() {
+                //Posts all of them in a turn, so the batch is drained after this.
+                for (int i = 0; i < 3; ++i) {
+                    final String name = "b" + i;
+                    batching.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            order.add(name);
+                            done.countDown();
+                        }
+                    });
+                }
+                plain.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        order.add("p");
+                        done.countDown();
+                    }
+                });
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return order;
+    }
+
+    @Test
+    public void testBatchingDispatcher() throws Exception {
+        //All of the batch runs in a single message.
+        assertEquals("[b0, b1, b2, p]", runBatches(1000).toString());
+        //The budget is exceeded at each runnable, so the rest yields to the other message.
+        assertEquals("[b0, p, b1, b2]", runBatches(0).toString());
+    }
+
+    @Test
+    public void testDispatcherPool() throws Exception {
+        final DispatcherPool pool = new DispatcherPool("test-pool", 2);
+        assertTrue(pool.indexOf(0) != pool.indexOf(1));
+
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        pool.getDispatcher(0).post(new Runnable() {
+            @Override
+            public void run() {
+                blocking.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(blocking.await(10, TimeUnit.SECONDS));
+
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; ++i) {
+            final int value = i;
+            pool.getDispatcher(0).post(new Runnable() {
+                @Override
+                public void run() {
+                    order.add(value);
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(5, pool.getQueueDepth(pool.indexOf(0)));
+
+        //The other loop is not stalled by the blocked one.
+        final Deferred<String> other = pool.getDispatcher(1).call(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertEquals("test-pool-" + (pool.indexOf(1) + 1), other.getResult().safeGetValue());
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("[0, 1, 2, 3, 4]", order.toString());
+        assertEquals(0, pool.getQueueDepth(pool.indexOf(0)));
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise;
+
+import java.io.Closeable;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Canceller} that notifies the registered callbacks when it is canceled, instead of waiting for the next poll of {@link #isCanceled()}.
+ * <p>
+ * Each callback is called exactly once on the canceling thread, unless it is unregistered before.
+ * The source can be linked to the parent tokens, and is canceled together with any of them.
+ * The tokens of the promise params are also the sources, so {@link CancelTokens#register(CancelToken, Runnable)} works with them.
+ * <p>
+ * The source can have the deadline by {@link #cancelAfter(long)}. The linked source inherits the earliest deadline of the parents,
+ * so the deadline travels to the nested promises through the token of the params.
+ */
+public class CancelTokenSource implements Canceller, Closeable {
+
+    private static final Closeable NO_REGISTRATION = new Closeable() {
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private volatile boolean mIsCanceled;
+    private volatile boolean mIsTimedOut;
+    //The deadline by System.nanoTime(), or NO_DEADLINE. Written under this.
+    private volatile long mDeadlineNanos = NO_DEADLINE;
+    //Guarded by this. Set when canceled or closed.
+    private boolean mIsDetached;
+    //Guarded by this.
+    private ScheduledFuture<?> mTimer;
+    //Guarded by this. The sentinel of the circular list of the registrations, made on the first registration.
+    private Registration mRegistrations;
+    //Guarded by this.
+    private Closeable[] mParentRegistrations;
+
+    public CancelTokenSource() {
+    }
+
+    /**
+     * Makes the source linked to the parents. The source is canceled when any of the parents is canceled.
+     * The parent that is not {@link CancelTokenSource} is checked only here.
+     *
+     * @param parents the parent tokens
+     */
+    public CancelTokenSource(final CancelToken... parents) {
+        link(parents);
+    }
+
+    /**
+     * Links the source to the parents. The subclass calls this after its fields are set,
+     * because the parent that is already canceled cancels the source immediately.
+     */
+    final void link(final CancelToken... parents) {
+        if (parents.length == 0) {
+            return;
+        }
+
+        long deadline = NO_DEADLINE;
+        for (CancelToken parent : parents) {
+            if (parent instanceof CancelTokenSource) {
+                deadline = Math.min(deadline, ((CancelTokenSource) parent).mDeadlineNanos);
+            }
+        }
+        synchronized (this) {
+            if (deadline < mDeadlineNanos) {
+                mDeadlineNanos = deadline;
+            }
+        }
+
+        final Closeable[] parentRegistrations = new Closeable[parents.length];
+        final Runnable cancelThis = new Runnable() {
+            @Override
+            public void run() {
+                cancel();
+            }
+        };
+        for (int i = 0; i < parents.length; ++i) {
+            parentRegistrations[i] = CancelTokens.register(parents[i], cancelThis);
+        }
+
+        boolean isDetached;
+        synchronized (this) {
+            isDetached = mIsDetached;
+            if (!isDetached) {
+                final Closeable[] linked = mParentRegistrations;
+                if (linked == null) {
+                    mParentRegistrations = parentRegistrations;
+                } else {
+                    final Closeable[] merged = new Closeable[linked.length + parentRegistrations.length];
+                    System.arraycopy(linked, 0, merged, 0, linked.length);
+                    System.arraycopy(parentRegistrations, 0, merged, linked.length, parentRegistrations.length);
+                    mParentRegistrations = merged;
+                }
+            }
+        }
+        //Canceled by the parent or closed while linking.
+        if (isDetached) {
+            closeAll(parentRegistrations);
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return mIsCanceled;
+    }
+
+    /**
+     * Makes the state canceled. Called under the lock of this, once for each {@link #cancel()}.
+     * The subclass that keeps its own state overrides this together with {@link #isCanceled()}.
+     *
+     * @return {@code true} if the state is changed or {@code false} if it is already canceled
+     */
+    boolean markCanceled() {
+        if (mIsCanceled) {
+            return false;
+        }
+        mIsCanceled = true;
+        return true;
+    }
+
+    /**
+     * Returns whether the source is canceled by its own deadline of {@link #cancelAfter(long)}.
+     * The source canceled by the deadline of the parent is canceled by the parent, and is not timed out.
+     *
+     * @return {@code true} if the source is timed out
+     */
+    public boolean isTimedOut() {
+        return mIsTimedOut;
+    }
+
+    /**
+     * Returns the time until the deadline.
+     *
+     * @return the remaining milliseconds, 0 if the deadline is passed, or {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public long getRemainingMillis() {
+        final long deadline = mDeadlineNanos;
+        if (deadline == NO_DEADLINE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Cancels the source after the delay on {@link PromiseTimer}. The earlier deadline wins if the source already has one.
+     *
+     * @param delayMillis the delay in milliseconds
+     * @return this
+     */
+    public CancelTokenSource cancelAfter(final long delayMillis) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("delayMillis must not be negative.");
+        }
+        final long delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        final long deadline = delayNanos >= Long.MAX_VALUE / 2 ? NO_DEADLINE : System.nanoTime() + delayNanos;
+
+        final ScheduledFuture<?> oldTimer;
+        synchronized (this) {
+            if (mIsDetached || deadline >= mDeadlineNanos) {
+                //Canceled, closed or the earlier deadline is set.
+                return this;
+            }
+            mDeadlineNanos = deadline;
+            oldTimer = mTimer;
+            mTimer = PromiseTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    cancel(true);
+                }
+            }, delayMillis);
+        }
+        if (oldTimer != null) {
+            oldTimer.cancel(false);
+        }
+        return this;
+    }
+
+    /**
+     * Cancels the source and calls the registered callbacks in order of the registration.
+     * All of the callbacks are called even if some of them throw, and the first exception is thrown after that.
+     */
+    @Override
+    public void cancel() {
+        cancel(false);
+    }
+
+    private void cancel(final boolean isTimedOut) {
+        final Registration registrations;
+        final Closeable[] parentRegistrations;
+        final ScheduledFuture<?> timer;
+        synchronized (this) {
+            if (!markCanceled()) {
+                return;
+            }
+            mIsTimedOut = isTimedOut;
+            mIsDetached = true;
+            registrations = mRegistrations;
+            mRegistrations = null;
+            parentRegistrations = mParentRegistrations;
+            mParentRegistrations = null;
+            timer = mTimer;
+            mTimer = null;
+        }
+
+        if (timer != null && !isTimedOut) {
+            timer.cancel(false);
+        }
+
+        onCanceled();
+
+        if (parentRegistrations != null) {
+            closeAll(parentRegistrations);
+        }
+        if (registrations == null) {
+            return;
+        }
+
+        RuntimeException exception = null;
+        Error error = null;
+        for (Registration registration = registrations.mNext; registration != registrations; registration = registration.mNext) {
+            try {
+                registration.mCallback.run();
+            } catch (final RuntimeException e) {
+                if (exception == null && error == null) {
+                    exception = e;
+                }
+            } catch (final Error e) {
+                if (exception == null && error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Called once on the canceling thread before the callbacks.
+     */
+    protected void onCanceled() {
+    }
+
+    /**
+     * Registers the callback that is called once when the source is canceled.
+     * If the source is already canceled, the callback is called immediately on the current thread.
+     *
+     * @param callback the callback
+     * @return the registration. Closing it unregisters the callback.
+     * The callback already running on the canceling thread is not waited.
+     */
+    public Closeable register(final Runnable callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback must not be null.");
+        }
+
+        synchronized (this) {
+            if (!mIsDetached) {
+                Registration sentinel = mRegistrations;
+                if (sentinel == null) {
+                    sentinel = new Registration(null);
+                    mRegistrations = sentinel;
+                }
+                final Registration registration = new Registration(callback);
+                registration.mPrev = sentinel.mPrev;
+                registration.mNext = sentinel;
+                sentinel.mPrev.mNext = registration;
+                sentinel.mPrev = registration;
+                return registration;
+            }
+        }
+
+        if (isCanceled()) {
+            callback.run();
+        }
+        return NO_REGISTRATION;
+    }
+
+    /**
+     * Unlinks the source from the parents, stops the deadline and drops the callbacks without canceling.
+     * Closing the source that is no longer used lets the long-lived parents release it.
+     */
+    @Override
+    public void close() {
+        final Closeable[] parentRegistrations;
+        final ScheduledFuture<?> timer;
+        synchronized (this) {
+            if (mIsDetached) {
+                return;
+            }
+            mIsDetached = true;
+            mRegistrations = null;
+            parentRegistrations = mParentRegistrations;
+            mParentRegistrations = null;
+            timer = mTimer;
+            mTimer = null;
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        if (parentRegistrations != null) {
+            closeAll(parentRegistrations);
+        }
+    }
+
+    private static void closeAll(final Closeable[] closeables) {
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (final Exception e) {
+                //The registrations do not throw.
+            }
+        }
+    }
+
+    private final class Registration implements Closeable {
+        private final Runnable mCallback;
+        //Guarded by CancelTokenSource.this.
+        private Registration mPrev = this;
+        private Registration mNext = this;
+
+        Registration(final Runnable callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void close() {
+            synchronized (CancelTokenSource.this) {
+                if (mIsDetached || mPrev == null) {
+                    return;
+                }
+                mPrev.mNext = mNext;
+                mNext.mPrev = mPrev;
+                mPrev = null;
+                mNext = null;
+            }
+        }
+    }
+}
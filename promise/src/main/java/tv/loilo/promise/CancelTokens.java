@@ -16,6 +16,8 @@
 
 package tv.loilo.promise;
 
+import java.io.Closeable;
+
 /**
  * The fixed states of cancellation.
  */
@@ -31,9 +33,48 @@ public final class CancelTokens {
      */
     public static final CancelToken NONE = new StaticCancelToken(false);
 
+    private static final Closeable NO_REGISTRATION = new Closeable() {
+        @Override
+        public void close() {
+        }
+    };
+
     private CancelTokens() {
     }
 
+    /**
+     * Registers the callback that is called once when the token is canceled.
+     * The token that is not {@link CancelTokenSource} can not notify, so it is checked only here,
+     * and the callback is called immediately if it is already canceled.
+     *
+     * @param cancelToken the token
+     * @param callback    the callback
+     * @return the registration. Closing it unregisters the callback.
+     */
+    public static Closeable register(final CancelToken cancelToken, final Runnable callback) {
+        if (cancelToken instanceof CancelTokenSource) {
+            return ((CancelTokenSource) cancelToken).register(callback);
+        }
+        if (cancelToken.isCanceled()) {
+            callback.run();
+        }
+        return NO_REGISTRATION;
+    }
+
+    /**
+     * Returns the time until the deadline of the token, such as the one set by {@link Promise#timeout(long)}.
+     * Use it to give the nested blocking calls the timeout that does not exceed the deadline.
+     *
+     * @param cancelToken the token
+     * @return the remaining milliseconds, 0 if the deadline is passed, or {@link Long#MAX_VALUE} if there is no deadline
+     */
+    public static long getRemainingMillis(final CancelToken cancelToken) {
+        if (cancelToken instanceof CancelTokenSource) {
+            return ((CancelTokenSource) cancelToken).getRemainingMillis();
+        }
+        return Long.MAX_VALUE;
+    }
+
     private static class StaticCancelToken implements CancelToken {
         private final boolean mIsCanceled;
 
@@ -24,27 +24,31 @@ public final class Defer {
     }
 
     public static <T> Deferred<T> complete(Result<T> result) {
+        //The results made by Results are completed deferreds by themselves.
+        if (result instanceof Results.SimpleResult) {
+            return (Results.SimpleResult<T>) result;
+        }
         return new Completed<>(result);
     }
 
     public static <T> Deferred<T> success(T value) {
-        return new Completed<>(Results.success(value));
+        return complete(Results.success(value));
     }
 
     public static <T> Deferred<T> fail(Throwable e) {
-        return new Completed<>(Results.<T>fail(e));
+        return complete(Results.<T>fail(e));
     }
 
     public static <T> Deferred<T> cancel() {
-        return new Completed<>(Results.<T>cancel());
+        return complete(Results.<T>cancel());
     }
 
     public static <T> Deferred<T> notImpl() {
-        return new Completed<>(Results.<T>notImpl());
+        return complete(Results.<T>notImpl());
     }
 
     public static <TIn, TOut> Deferred<TOut> exchangeValue(Result<TIn> result, TOut replace) {
-        return new Completed<>(Results.exchangeValue(result, replace));
+        return complete(Results.exchangeValue(result, replace));
     }
 
     private static class Completed<T> implements Deferred<T> {
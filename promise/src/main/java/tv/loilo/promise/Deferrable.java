@@ -18,17 +18,18 @@ package tv.loilo.promise;
 
 /**
  * Class to be able to synchronously get the result of asynchronous processing.
+ * The result can also be received by the completion listener without blocking the thread.
  */
 public final class Deferrable<T> implements Deferred<T> {
 
-    private Cancellable mCancellable;
-    private Pipe<Result<T>> mResultPipe;
+    private volatile Cancellable mCancellable;
+    private final SingleAssignment<Result<T>> mResult;
 
     public Deferrable() {
-        mResultPipe = new Pipe<>();
+        mResult = new SingleAssignment<>();
     }
 
-    private void cancel() {
+    void cancel() {
         final Cancellable cancellable = mCancellable;
         if (cancellable == null) {
             return;
@@ -42,7 +43,7 @@ public final class Deferrable<T> implements Deferred<T> {
         Result<T> result;
         while (true) {
             try {
-                result = mResultPipe.get();
+                result = mResult.get();
                 break;
             } catch (final InterruptedException e) {
                 interrupted = true;
@@ -58,7 +59,17 @@ public final class Deferrable<T> implements Deferred<T> {
     }
 
     public void setResult(Result<T> result) {
-        mResultPipe.set(result);
+        mResult.set(result);
+    }
+
+    /**
+     * Registers the listener that is called once on the thread that sets the result.
+     *
+     * @param listener the listener to receive the result
+     * @return {@code true} if the listener is registered or {@code false} if the result is already set
+     */
+    boolean listen(SingleAssignment.OnAssignedListener<Result<T>> listener) {
+        return mResult.listen(listener);
     }
 
     public void setCancellable(Cancellable cancellable) {
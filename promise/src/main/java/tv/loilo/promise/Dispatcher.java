@@ -21,21 +21,65 @@ import android.os.Looper;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The android.os.Handler wrapper class.
+ * <p>
+ * The dispatcher in the batching mode collects the posted runnables into one queue, and runs them in a single message per Looper turn.
+ * When the turn exceeds the time budget, the rest is left to the next turn, so the other messages such as the input events are not starved.
+ * The delayed runnables are posted as the separate messages.
  */
 public final class Dispatcher {
 
+    /**
+     * The default time budget of a turn in the batching mode. About half of a frame at 60 fps.
+     */
+    public static final long DEFAULT_BATCH_BUDGET_MILLIS = 8;
+
     private static Dispatcher mMainDispatcher = null;
+    private static Dispatcher mMainBatchingDispatcher = null;
     private static MessageLoop mSubMessageLoop = null;
     private static Dispatcher mSubDispatcher = null;
 
     private final Handler mHandler;
+    //The batch in the batching mode, or null.
+    private final ConcurrentLinkedQueue<Runnable> mBatch;
+    private final long mBatchBudgetNanos;
+    private final AtomicBoolean mIsDrainPosted = new AtomicBoolean();
+    //The number of the runnables in the batch.
+    private final AtomicInteger mBatchSize = new AtomicInteger();
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
 
     public Dispatcher(Looper looper) {
+        this(looper, null, 0);
+    }
+
+    private Dispatcher(Looper looper, ConcurrentLinkedQueue<Runnable> batch, long batchBudgetNanos) {
         mHandler = new Handler(looper);
+        mBatch = batch;
+        mBatchBudgetNanos = batchBudgetNanos;
+    }
+
+    /**
+     * Makes the dispatcher in the batching mode.
+     *
+     * @param looper       the looper to run the runnables
+     * @param budgetMillis the time budget of a turn. The runnables are run until the budget is exceeded, and at least one runs in a turn.
+     */
+    public static Dispatcher newBatching(Looper looper, long budgetMillis) {
+        if (budgetMillis < 0) {
+            throw new IllegalArgumentException("budgetMillis must not be negative.");
+        }
+        return new Dispatcher(looper, new ConcurrentLinkedQueue<Runnable>(), TimeUnit.MILLISECONDS.toNanos(budgetMillis));
     }
 
     public static Dispatcher getMainDispatcher() {
@@ -52,6 +96,24 @@ public final class Dispatcher {
         return dispatcher;
     }
 
+    /**
+     * Returns the dispatcher of the main looper in the batching mode with {@link #DEFAULT_BATCH_BUDGET_MILLIS}.
+     * Use it for the frequent UI updates such as the results and the progress of many promises.
+     */
+    public static Dispatcher getMainBatchingDispatcher() {
+        Dispatcher dispatcher = mMainBatchingDispatcher;
+        if (dispatcher == null) {
+            //Double check locking.
+            synchronized (Dispatcher.class) {
+                if (mMainBatchingDispatcher == null) {
+                    mMainBatchingDispatcher = newBatching(Looper.getMainLooper(), DEFAULT_BATCH_BUDGET_MILLIS);
+                }
+                dispatcher = mMainBatchingDispatcher;
+            }
+        }
+        return dispatcher;
+    }
+
     public static Dispatcher getSubDispatcher() {
         Dispatcher dispatcher = mSubDispatcher;
         if (dispatcher == null) {
@@ -73,16 +135,39 @@ public final class Dispatcher {
         return mHandler.getLooper().getThread() == Thread.currentThread();
     }
 
+    public boolean isBatching() {
+        return mBatch != null;
+    }
+
+    /**
+     * Returns the number of the runnables posted and not run yet, excluding the delayed ones.
+     *
+     * @return the number of the runnables, or -1 if the dispatcher is not in the batching mode
+     * because the messages of the Handler can not be counted
+     */
+    public int getQueueDepth() {
+        return mBatch != null ? mBatchSize.get() : -1;
+    }
+
     public void run(Runnable runnable) {
         if (isCurrentThread()) {
             runnable.run();
         } else {
-            mHandler.post(runnable);
+            post(runnable);
         }
     }
 
     public void post(Runnable runnable) {
-        mHandler.post(runnable);
+        if (mBatch == null) {
+            mHandler.post(runnable);
+            return;
+        }
+
+        mBatchSize.incrementAndGet();
+        mBatch.offer(runnable);
+        if (mIsDrainPosted.compareAndSet(false, true)) {
+            mHandler.post(mDrain);
+        }
     }
 
     public void post(Runnable runnable, long delayMills){
@@ -91,6 +176,33 @@ public final class Dispatcher {
 
     public void remove(Runnable runnable){
         mHandler.removeCallbacks(runnable);
+        if (mBatch != null) {
+            //noinspection StatementWithEmptyBody
+            while (mBatch.remove(runnable)) {
+                mBatchSize.decrementAndGet();
+            }
+        }
+    }
+
+    private void drain() {
+        final long start = System.nanoTime();
+        try {
+            Runnable runnable;
+            while ((runnable = mBatch.poll()) != null) {
+                mBatchSize.decrementAndGet();
+                runnable.run();
+                if (System.nanoTime() - start >= mBatchBudgetNanos) {
+                    break;
+                }
+            }
+        } finally {
+            //Leaves the rest to the next turn, also when the runnable threw.
+            mIsDrainPosted.set(false);
+            //The post may have seen the drain as posted after the last poll.
+            if (!mBatch.isEmpty() && mIsDrainPosted.compareAndSet(false, true)) {
+                mHandler.post(mDrain);
+            }
+        }
     }
 
     public <T> Deferred<T> call(final Callable<T> callable) {
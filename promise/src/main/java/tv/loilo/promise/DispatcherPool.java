@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of the background {@link MessageLoop}s. The dispatcher is obtained by the key hashed to a loop,
+ * so the runnables of the same key run in order, and the unrelated ones run in parallel on the other loops.
+ * <p>
+ * The dispatchers are in the batching mode of {@link Dispatcher#newBatching(android.os.Looper, long)}, so each loop reports its queue depth.
+ * The loops are started lazily on the first use.
+ */
+public final class DispatcherPool {
+
+    private static DispatcherPool mDefaultPool = null;
+
+    private final String mName;
+    private final AtomicReferenceArray<Dispatcher> mDispatchers;
+
+    /**
+     * @param name the prefix of the thread names
+     * @param size the number of the loops
+     */
+    public DispatcherPool(String name, int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive.");
+        }
+        mName = name;
+        mDispatchers = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Returns the pool shared in the application. The size is the number of the processors, from 2 to 4.
+     */
+    public static DispatcherPool getDefault() {
+        DispatcherPool pool = mDefaultPool;
+        if (pool == null) {
+            //Double check locking.
+            synchronized (DispatcherPool.class) {
+                if (mDefaultPool == null) {
+                    final int size = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+                    mDefaultPool = new DispatcherPool("loilo-promise-sub", size);
+                }
+                pool = mDefaultPool;
+            }
+        }
+        return pool;
+    }
+
+    public int size() {
+        return mDispatchers.length();
+    }
+
+    /**
+     * Returns the dispatcher of the loop that the key is hashed to.
+     *
+     * @param key the key such as the id of the resource, or null for the first loop
+     */
+    public Dispatcher getDispatcher(Object key) {
+        return getDispatcherAt(indexOf(key));
+    }
+
+    /**
+     * Returns the dispatcher of the loop.
+     *
+     * @param index the index of the loop, from 0 to {@link #size()} - 1
+     */
+    public Dispatcher getDispatcherAt(int index) {
+        Dispatcher dispatcher = mDispatchers.get(index);
+        if (dispatcher == null) {
+            //Double check locking.
+            synchronized (this) {
+                dispatcher = mDispatchers.get(index);
+                if (dispatcher == null) {
+                    final MessageLoop loop = MessageLoop.run(mName + "-" + (index + 1));
+                    dispatcher = Dispatcher.newBatching(loop.getLooper(), Dispatcher.DEFAULT_BATCH_BUDGET_MILLIS);
+                    mDispatchers.set(index, dispatcher);
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Returns the index of the loop that the key is hashed to.
+     */
+    public int indexOf(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        //Spreads the higher bits, because the hash codes of the small keys differ only in the lower bits.
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % mDispatchers.length();
+    }
+
+    /**
+     * Returns the queue depth of the loop. See {@link Dispatcher#getQueueDepth()}.
+     *
+     * @param index the index of the loop
+     * @return the number of the runnables waiting on the loop, or 0 if the loop is not started
+     */
+    public int getQueueDepth(int index) {
+        final Dispatcher dispatcher = mDispatchers.get(index);
+        return dispatcher != null ? dispatcher.getQueueDepth() : 0;
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise;
+
+/**
+ * Interface that will be invoked on each element to make the promise to map the element by {@link Promises#mapParallel}.
+ */
+public interface MapCallback<TIn, TOut> {
+    Promise<TOut> run(MapParams<TIn> params) throws Exception;
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise;
+
+/**
+ * Parameters that are passed to {@link MapCallback}.
+ */
+public final class MapParams<TValue> extends SuccessParams<TValue> {
+    private final int mIndex;
+
+    public MapParams(int index, TValue value, CancelToken cancelToken, CloseableStack scope, Object tag) {
+        super(value, cancelToken, scope, tag);
+        mIndex = index;
+    }
+
+    /**
+     * @return the index of the element in the enumeration
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+}
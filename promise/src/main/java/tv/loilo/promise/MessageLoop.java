@@ -36,6 +36,15 @@ public final class MessageLoop {
     }
 
     public static MessageLoop run() {
+        return run(null);
+    }
+
+    /**
+     * Starts the thread of the message loop.
+     *
+     * @param name the name of the thread, or null for the default name
+     */
+    public static MessageLoop run(String name) {
         final ManualResetEvent event = new ManualResetEvent(false);
         final AtomicReference<Looper> looperTransit = new AtomicReference<>();
         final Thread thread = new Thread(new Runnable() {
@@ -50,6 +59,9 @@ public final class MessageLoop {
                 Looper.loop();
             }
         });
+        if (name != null) {
+            thread.setName(name);
+        }
         thread.start();
 
         boolean interrupted = false;
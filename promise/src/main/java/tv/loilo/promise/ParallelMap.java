@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the promises made from the elements with the limited parallelism, and collects the results in order.
+ * The elements are pulled only when a new promise can start.
+ * Only one thread at a time pulls the elements, so the iterator need not be thread-safe.
+ */
+final class ParallelMap<TIn, TOut> implements Cancellable {
+
+    private final Iterator<TIn> mIterator;
+    private final int mMaxParallelism;
+    private final MapCallback<TIn, TOut> mCallback;
+    private final CancelToken mCancelToken;
+    private final CloseableStack mScope;
+    private final Object mTag;
+
+    private final Deferrable<List<TOut>> mDeferrable = new Deferrable<>();
+    //The running slots. A slot is removed when its promise finishes, so the finished promises are not kept.
+    private final ConcurrentLinkedQueue<Slot> mSlots = new ConcurrentLinkedQueue<>();
+    //Guarded by itself. The values in order of the index, added only by the draining thread.
+    private final ArrayList<TOut> mValues = new ArrayList<>();
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+    private final AtomicReference<Result<TOut>> mFailure = new AtomicReference<>();
+    private final AtomicBoolean mIsCompleted = new AtomicBoolean();
+    //The number of drain requests. Only the thread that raised it from zero drains.
+    private final AtomicInteger mDrainRequests = new AtomicInteger();
+    private volatile boolean mIsStopped;
+    //Accessed only by the draining thread.
+    private boolean mIsExhausted;
+    private int mIndex;
+
+    ParallelMap(Iterator<TIn> iterator, int maxParallelism, MapCallback<TIn, TOut> callback, ExecutionContext context) {
+        if (maxParallelism <= 0) {
+            throw new IllegalArgumentException("maxParallelism must be positive.");
+        }
+        mIterator = iterator;
+        mMaxParallelism = maxParallelism;
+        mCallback = callback;
+        mCancelToken = context.getCancelToken();
+        mScope = context.getScope();
+        mTag = context.getTag();
+    }
+
+    Deferred<List<TOut>> start() {
+        mDeferrable.setCancellable(this);
+        drain();
+        return mDeferrable;
+    }
+
+    @Override
+    public void cancel() {
+        stop(Results.<TOut>cancel());
+    }
+
+    private void stop(Result<TOut> failure) {
+        if (!mFailure.compareAndSet(null, failure)) {
+            return;
+        }
+        mIsStopped = true;
+        for (Slot slot : mSlots) {
+            slot.cancel();
+        }
+        //Completes if nothing is running.
+        drain();
+    }
+
+    private void drain() {
+        if (mDrainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int requests = 1;
+        for (; ; ) {
+            while (!mIsStopped && !mIsExhausted && mActiveCount.get() < mMaxParallelism) {
+                if (mCancelToken.isCanceled()) {
+                    stop(Results.<TOut>cancel());
+                    break;
+                }
+                launchNext();
+            }
+
+            if ((mIsStopped || mIsExhausted) && mActiveCount.get() <= 0) {
+                complete();
+            }
+
+            requests = mDrainRequests.addAndGet(-requests);
+            if (requests == 0) {
+                return;
+            }
+        }
+    }
+
+    private void launchNext() {
+        final Promise<TOut> promise;
+        try {
+            if (!mIterator.hasNext()) {
+                mIsExhausted = true;
+                return;
+            }
+            final TIn element = mIterator.next();
+            promise = mCallback.run(new MapParams<>(mIndex, element, mCancelToken, mScope, mTag));
+        } catch (final InterruptedException e) {
+            stop(Results.<TOut>cancel());
+            Thread.currentThread().interrupt();
+            return;
+        } catch (final CancellationException e) {
+            stop(Results.<TOut>cancel());
+            return;
+        } catch (final Throwable e) {
+            stop(Results.<TOut>fail(e));
+            return;
+        }
+
+        if (promise == null) {
+            stop(Results.<TOut>fail(new NullDeferredException("MapCallback returned null")));
+            return;
+        }
+
+        final Slot slot = new Slot(mIndex);
+        ++mIndex;
+        synchronized (mValues) {
+            mValues.add(null);
+        }
+        mSlots.add(slot);
+        mActiveCount.incrementAndGet();
+        try {
+            slot.setCanceller(promise.finish(slot).submit(mTag));
+        } catch (final RuntimeException e) {
+            mActiveCount.decrementAndGet();
+            stop(Results.<TOut>fail(e));
+            return;
+        }
+
+        //The stop may have missed this slot.
+        if (mIsStopped) {
+            slot.cancel();
+        }
+    }
+
+    private void complete() {
+        if (!mIsCompleted.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Result<TOut> failure = mFailure.get();
+        if (failure != null) {
+            if (failure.getCancelToken().isCanceled()) {
+                mDeferrable.setCanceled();
+                return;
+            }
+            Throwable e;
+            try {
+                e = failure.getException();
+            } catch (final Error error) {
+                e = error;
+            }
+            mDeferrable.setFailed(e);
+            return;
+        }
+
+        final ArrayList<TOut> results;
+        synchronized (mValues) {
+            results = new ArrayList<>(mValues);
+        }
+        mDeferrable.setSucceeded(results);
+    }
+
+    private final class Slot implements FinishCallback<TOut> {
+        private final int mIndex;
+        private volatile Canceller mCanceller;
+        private volatile boolean mIsCancelRequested;
+
+        Slot(int index) {
+            mIndex = index;
+        }
+
+        void setCanceller(Canceller canceller) {
+            mCanceller = canceller;
+            //The stop may be requested before the canceller is set.
+            if (mIsCancelRequested) {
+                canceller.cancel();
+            }
+        }
+
+        void cancel() {
+            mIsCancelRequested = true;
+            final Canceller canceller = mCanceller;
+            if (canceller != null) {
+                canceller.cancel();
+            }
+        }
+
+        @Override
+        public void run(FinishParams<TOut> params) {
+            if (params.getCancelToken().isCanceled()) {
+                stop(Results.<TOut>cancel());
+            } else {
+                Throwable e;
+                try {
+                    e = params.getException();
+                } catch (final Error error) {
+                    e = error;
+                }
+
+                if (e != null) {
+                    stop(Results.<TOut>fail(e));
+                } else {
+                    final TOut value = params.getValue();
+                    synchronized (mValues) {
+                        mValues.set(mIndex, value);
+                    }
+                }
+            }
+
+            //Releases the finished promise.
+            mCanceller = null;
+            mSlots.remove(this);
+            mActiveCount.decrementAndGet();
+            drain();
+        }
+    }
+}
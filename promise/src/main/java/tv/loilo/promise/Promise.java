@@ -128,4 +128,17 @@ public interface Promise<TOut> extends Submittable {
      * @return promise to return the exchanged result
      */
     <TReplace> Promise<TReplace> exchange(TReplace replace);
+
+    /**
+     * Fails the promise with {@link PromiseTimeoutException} if it does not finish within the timeout.
+     * On the timeout, the returned promise fails at once and this promise is canceled, even if this promise does not observe the cancellation.
+     * The timeout is driven by {@link PromiseTimer}, not by a thread per timer.
+     * This promise is bound to the returned promise, which can be submitted many times.
+     * The deadline travels to the nested promises through the cancel token of the params,
+     * and the nested timeout never exceeds it. See {@link CancelTokens#getRemainingMillis(CancelToken)}.
+     *
+     * @param timeoutMillis the timeout in milliseconds
+     * @return promise to return the result of this promise or to fail by the timeout
+     */
+    Promise<TOut> timeout(long timeoutMillis);
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ExecutorService with named threads that counts the queued, active and completed tasks.
+ * Use {@link Promises#setDefaultExecutorService(ExecutorService)} to run promises on it by default.
+ */
+public final class PromiseExecutor extends AbstractExecutorService {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService mExecutorService;
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+
+    private PromiseExecutor(ExecutorService executorService) {
+        mExecutorService = executorService;
+    }
+
+    /**
+     * Makes the executor that creates threads as needed and reuses idle threads (same as Executors.newCachedThreadPool).
+     *
+     * @param name the prefix of the thread names
+     */
+    public static PromiseExecutor newCached(String name) {
+        return new PromiseExecutor(new ThreadPoolExecutor(
+                0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory(name)));
+    }
+
+    /**
+     * Makes the executor that runs at most maxThreads tasks at once and queues the rest.
+     * Idle threads are terminated after a while.
+     * <p>
+     * The waiting promise holds its thread in the default blocking mode,
+     * so the nested promises on the same bounded executor may wait each other forever.
+     * Enable {@link Promises#setNonBlockingContinuationEnabled(boolean)} with the bounded executor.
+     *
+     * @param name       the prefix of the thread names
+     * @param maxThreads the maximum number of worker threads
+     */
+    public static PromiseExecutor newBounded(String name, int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive.");
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return new PromiseExecutor(executor);
+    }
+
+    /**
+     * Makes the work-stealing executor backed by ForkJoinPool.
+     * Falls back to {@link #newBounded(String, int)} before API 21 that does not have ForkJoinPool.
+     * Like the bounded executor, it is intended for the non-blocking continuation mode.
+     *
+     * @param name        the prefix of the thread names
+     * @param parallelism the number of worker threads
+     */
+    public static PromiseExecutor newWorkStealing(String name, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return newBounded(name, parallelism);
+        }
+        return new PromiseExecutor(newForkJoinPool(name, parallelism));
+    }
+
+    /**
+     * Makes the executor that starts a new virtual thread for each task.
+     * The promise callbacks block the thread while waiting, so virtual threads can keep far more chains waiting at once.
+     * Falls back to {@link #newCached(String)} when the runtime does not support virtual threads (Android and Java before 21).
+     *
+     * @param name the prefix of the thread names
+     */
+    public static PromiseExecutor newVirtualThreadPerTask(String name) {
+        final ExecutorService executorService = newVirtualThreadPerTaskExecutor(name);
+        if (executorService == null) {
+            return newCached(name);
+        }
+        return new PromiseExecutor(executorService);
+    }
+
+    /**
+     * @return {@code true} if {@link #newVirtualThreadPerTask(String)} runs the tasks on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.OF_VIRTUAL != null;
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        if (!isVirtualThreadSupported()) {
+            return null;
+        }
+        try {
+            //Thread.ofVirtual().name(name + "-", 1).factory()
+            Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            builder = VirtualThreads.NAME.invoke(builder, name + "-", 1L);
+            final ThreadFactory factory = (ThreadFactory) VirtualThreads.FACTORY.invoke(builder);
+            return (ExecutorService) VirtualThreads.NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (final IllegalAccessException e) {
+            return null;
+        } catch (final InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static ExecutorService newForkJoinPool(final String name, int parallelism) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                };
+                thread.setName(name + "-" + threadNumber.incrementAndGet());
+                return thread;
+            }
+        }, null, true);
+    }
+
+    /**
+     * @return the number of tasks that are submitted but not started yet
+     */
+    public long getQueuedCount() {
+        return Math.max(0, mSubmittedCount.get() - mStartedCount.get());
+    }
+
+    /**
+     * @return the number of tasks that are running now
+     */
+    public long getActiveCount() {
+        return Math.max(0, mStartedCount.get() - mCompletedCount.get());
+    }
+
+    /**
+     * @return the number of tasks that are finished (including the tasks that threw)
+     */
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return the number of tasks that are accepted
+     */
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        mSubmittedCount.incrementAndGet();
+        try {
+            mExecutorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mStartedCount.incrementAndGet();
+                    try {
+                        command.run();
+                    } finally {
+                        mCompletedCount.incrementAndGet();
+                    }
+                }
+            });
+        } catch (final RuntimeException e) {
+            mSubmittedCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        mExecutorService.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> runnables = mExecutorService.shutdownNow();
+        //The tasks never run, so they are not queued anymore.
+        mSubmittedCount.addAndGet(-runnables.size());
+        return new ArrayList<>(runnables);
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mExecutorService.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mExecutorService.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutorService.awaitTermination(timeout, unit);
+    }
+
+    //The virtual thread APIs of Java 21, looked up by reflection to build on Java 7.
+    private static final class VirtualThreads {
+        static final Method OF_VIRTUAL;
+        static final Method NAME;
+        static final Method FACTORY;
+        static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method factory = null;
+            Method newThreadPerTaskExecutor = null;
+            try {
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                name = builderClass.getMethod("name", String.class, long.class);
+                factory = builderClass.getMethod("factory");
+                newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+            } catch (final ClassNotFoundException e) {
+                ofVirtual = null;
+            } catch (final NoSuchMethodException e) {
+                ofVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+            NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, mName + "-" + mThreadNumber.incrementAndGet());
+        }
+    }
+}
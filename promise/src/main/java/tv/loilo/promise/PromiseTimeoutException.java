@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thrown when the promise did not finish within the timeout of {@link Promise#timeout(long)}.
+ */
+public final class PromiseTimeoutException extends TimeoutException {
+
+    private final long mTimeoutMillis;
+
+    public PromiseTimeoutException(long timeoutMillis) {
+        super("Promise timed out after " + timeoutMillis + " ms.");
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return mTimeoutMillis;
+    }
+}
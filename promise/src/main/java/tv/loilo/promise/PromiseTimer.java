@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tv.loilo.promise;
+
+import android.os.Build;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timer shared by the timeouts and the delays, so waiting holds no thread per timer.
+ * The scheduled runnable runs on the timer thread, so it must be short.
+ */
+public final class PromiseTimer {
+
+    private PromiseTimer() {
+    }
+
+    /**
+     * Runs the runnable after the delay on the timer thread.
+     *
+     * @param runnable    the short runnable
+     * @param delayMillis the delay in milliseconds
+     * @return the future to cancel the runnable
+     */
+    public static ScheduledFuture<?> schedule(final Runnable runnable, final long delayMillis) {
+        return Holder.INSTANCE.schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Holder {
+        static final ScheduledThreadPoolExecutor INSTANCE = newExecutor();
+
+        private static ScheduledThreadPoolExecutor newExecutor() {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "loilo-promise-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                //Most of the timeouts are canceled, so they must not stay in the queue.
+                executor.setRemoveOnCancelPolicy(true);
+            }
+            return executor;
+        }
+    }
+}
@@ -19,26 +19,88 @@ package tv.loilo.promise;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * This class is {@link Promise} Factory.
  */
 @SuppressWarnings({"TryFinallyCanBeTryWithResources", "ThrowFromFinallyBlock"})
 public final class Promises {
-    private static final ExecutorService mDefaultExecutorService = Executors.newCachedThreadPool();
+    private static final ExecutorService mBuiltInExecutorService = PromiseExecutor.newCached("loilo-promise");
+
+    private static volatile ExecutorService mDefaultExecutorService = mBuiltInExecutorService;
+
+    private static volatile boolean mIsNonBlockingContinuationEnabled = false;
 
     private Promises() {
     }
 
+    /**
+     * Enables or disables the non-blocking continuation.
+     * When enabled, a callback chain that waits for an incomplete {@link Deferrable} releases the thread,
+     * and the rest of the chain is resumed on the same ExecutorService when the result is set.
+     * {@link Deferred#getResult()} keeps blocking in both modes.
+     *
+     * @param enabled {@code true} to enable the non-blocking continuation
+     */
+    public static void setNonBlockingContinuationEnabled(boolean enabled) {
+        mIsNonBlockingContinuationEnabled = enabled;
+    }
+
+    public static boolean isNonBlockingContinuationEnabled() {
+        return mIsNonBlockingContinuationEnabled;
+    }
+
+    /**
+     * Replaces the ExecutorService that is used by {@link Submittable#submit()} and the cancellation callbacks.
+     * The replaced ExecutorService is not shut down.
+     *
+     * @param executorService the executor to use by default, or {@code null} to restore the built-in executor
+     */
+    public static void setDefaultExecutorService(ExecutorService executorService) {
+        mDefaultExecutorService = executorService != null ? executorService : mBuiltInExecutorService;
+    }
+
+    /**
+     * @return the ExecutorService that is used by default (the built-in executor is a {@link PromiseExecutor})
+     */
+    public static ExecutorService getDefaultExecutorService() {
+        return mDefaultExecutorService;
+    }
+
+    //Cancels the submitted promises except the one at the index.
+    private static void cancelOthers(final AtomicReferenceArray<Canceller> cancellers, final int except) {
+        final int count = cancellers.length();
+        for (int i = 0; i < count; ++i) {
+            if (i == except) {
+                continue;
+            }
+            final Canceller canceller = cancellers.get(i);
+            if (canceller != null) {
+                canceller.cancel();
+            }
+        }
+    }
+
+    private static Cancellable cancelAll(final AtomicReferenceArray<Canceller> cancellers) {
+        return new Cancellable() {
+            @Override
+            public void cancel() {
+                cancelOthers(cancellers, -1);
+            }
+        };
+    }
+
     @SafeVarargs
     public static <TOut> Promise<List<TOut>> whenAll(final Promise<TOut>... promises) {
         return when(new WhenCallback<List<TOut>>() {
@@ -46,112 +108,67 @@ public final class Promises {
             public Deferred<List<TOut>> run(WhenParams entryParams) throws Exception {
 
                 final int promiseCount = promises.length;
-                final ArrayList<TOut> results = new ArrayList<>(promiseCount);
-                //noinspection ForLoopReplaceableByForEach
-                for (int i = 0; i < promiseCount; ++i) {
-                    results.add(null);
+                if (promiseCount <= 0) {
+                    return Defer.<List<TOut>>success(new ArrayList<TOut>());
                 }
+
+                final Object[] values = new Object[promiseCount];
                 final AtomicInteger finishCount = new AtomicInteger();
+                final AtomicInteger successCount = new AtomicInteger();
                 final AtomicReference<Throwable> exception = new AtomicReference<>();
-                final Scheduler scheduler = new Scheduler(1);
-
                 final Deferrable<List<TOut>> deferrable = new Deferrable<>();
-                final ManualResetEvent prepared = new ManualResetEvent(false);
-                final Canceller[] cancellers = new Canceller[promiseCount];
-                final AtomicInteger successCount = new AtomicInteger();
+                final AtomicReferenceArray<Canceller> cancellers = new AtomicReferenceArray<>(promiseCount);
 
-                try {
-                    for (int i = 0; i < promiseCount; ++i) {
-                        final Promise<TOut> promise = promises[i];
-                        final int capture = i;
-                        final Canceller canceller = Promises.when(new WhenCallback<TOut>() {
-                            @Override
-                            public Deferred<TOut> run(WhenParams params) throws Exception {
-                                prepared.await();
-                                return promise.get(params);
-                            }
-                        }).then(new ThenCallback<TOut, Void>() {
-                            @Override
-                            public Deferred<Void> run(final ThenParams<TOut> eachParams) throws Exception {
-                                return when(new WhenCallback<Void>() {
-                                    @Override
-                                    public Deferred<Void> run(WhenParams unused) throws Exception {
-                                        if (eachParams.getCancelToken().isCanceled()) {
-                                            return Defer.cancel();
-                                        }
-
-                                        Throwable e;
-                                        try {
-                                            e = eachParams.getException();
-                                        } catch (final Error error) {
-                                            e = error;
-                                        }
-
-                                        if (e != null) {
-                                            return Defer.fail(e);
-                                        }
-
-                                        results.set(capture, eachParams.getValue());
-
-                                        successCount.incrementAndGet();
-                                        return Defer.success(null);
-                                    }
-                                }).getOn(scheduler, eachParams);
-                            }
-                        }).finish(new FinishCallback<Void>() {
-                            @Override
-                            public void run(FinishParams<Void> finishParams) {
-                                if (!finishParams.getCancelToken().isCanceled()) {
-                                    Throwable e;
-                                    try {
-                                        e = finishParams.getException();
-                                    } catch (final Error error) {
-                                        e = error;
-                                    }
+                for (int i = 0; i < promiseCount; ++i) {
+                    final int capture = i;
+                    final Canceller canceller = promises[i].finish(new FinishCallback<TOut>() {
+                        @Override
+                        public void run(FinishParams<TOut> finishParams) {
+                            if (!finishParams.getCancelToken().isCanceled()) {
+                                Throwable e;
+                                try {
+                                    e = finishParams.getException();
+                                } catch (final Error error) {
+                                    e = error;
+                                }
 
-                                    if (e != null) {
-                                        if (exception.compareAndSet(null, e)) {
-                                            for (int j = 0; j < promiseCount; ++j) {
-                                                if (j == capture) {
-                                                    continue;
-                                                }
-                                                final Canceller canceling = cancellers[j];
-                                                if (canceling != null) {
-                                                    canceling.cancel();
-                                                }
-                                            }
-                                        }
+                                if (e != null) {
+                                    if (exception.compareAndSet(null, e)) {
+                                        cancelOthers(cancellers, capture);
                                     }
+                                } else {
+                                    //Published to the last finisher by finishCount.
+                                    values[capture] = finishParams.getValue();
+                                    successCount.incrementAndGet();
                                 }
+                            }
 
-                                if (finishCount.incrementAndGet() >= promiseCount) {
-                                    final Throwable e = exception.get();
-                                    if (e != null) {
-                                        deferrable.setFailed(e);
-                                    } else {
-                                        if (successCount.get() >= promiseCount) {
-                                            deferrable.setSucceeded(results);
-                                        } else {
-                                            deferrable.setCanceled();
-                                        }
+                            if (finishCount.incrementAndGet() >= promiseCount) {
+                                final Throwable e = exception.get();
+                                if (e != null) {
+                                    deferrable.setFailed(e);
+                                } else if (successCount.get() >= promiseCount) {
+                                    final ArrayList<TOut> results = new ArrayList<>(promiseCount);
+                                    for (Object value : values) {
+                                        @SuppressWarnings("unchecked") final TOut typed = (TOut) value;
+                                        results.add(typed);
                                     }
+                                    deferrable.setSucceeded(results);
+                                } else {
+                                    deferrable.setCanceled();
                                 }
                             }
-                        }).submit(entryParams.getTag());
-                        cancellers[i] = canceller;
+                        }
+                    }).submit(entryParams.getTag());
+                    cancellers.set(i, canceller);
+
+                    //A sibling may have failed before this canceller was visible.
+                    if (exception.get() != null) {
+                        canceller.cancel();
                     }
-                } finally {
-                    prepared.set();
                 }
 
-                deferrable.setCancellable(new Cancellable() {
-                    @Override
-                    public void cancel() {
-                        for (Canceller canceller : cancellers) {
-                            canceller.cancel();
-                        }
-                    }
-                });
+                deferrable.setCancellable(cancelAll(cancellers));
 
                 return deferrable;
             }
@@ -165,63 +182,44 @@ public final class Promises {
             public Deferred<TOut> run(WhenParams entryParams) throws Exception {
 
                 final int promiseCount = promises.length;
+                if (promiseCount <= 0) {
+                    return Defer.cancel();
+                }
+
                 final AtomicInteger finishCount = new AtomicInteger();
                 final AtomicReference<Result<TOut>> result = new AtomicReference<>();
-
                 final Deferrable<TOut> deferrable = new Deferrable<>();
-                final ManualResetEvent prepared = new ManualResetEvent(false);
-                final Canceller[] cancellers = new Canceller[promiseCount];
+                final AtomicReferenceArray<Canceller> cancellers = new AtomicReferenceArray<>(promiseCount);
 
-                try {
-                    for (int i = 0; i < promiseCount; ++i) {
-                        final Promise<TOut> promise = promises[i];
-                        final int capture = i;
-                        final Canceller canceller = Promises.when(new WhenCallback<TOut>() {
-                            @Override
-                            public Deferred<TOut> run(WhenParams params) throws Exception {
-                                prepared.await();
-                                return promise.get(params);
-                            }
-                        }).finish(new FinishCallback<TOut>() {
-                            @Override
-                            public void run(FinishParams<TOut> finishParams) {
+                for (int i = 0; i < promiseCount; ++i) {
+                    final int capture = i;
+                    final Canceller canceller = promises[i].finish(new FinishCallback<TOut>() {
+                        @Override
+                        public void run(FinishParams<TOut> finishParams) {
 
-                                if (result.compareAndSet(null, finishParams.asResult())) {
-                                    for (int j = 0; j < promiseCount; ++j) {
-                                        if (j == capture) {
-                                            continue;
-                                        }
-                                        final Canceller canceling = cancellers[j];
-                                        if (canceling != null) {
-                                            canceling.cancel();
-                                        }
-                                    }
-                                }
+                            if (result.compareAndSet(null, finishParams.asResult())) {
+                                cancelOthers(cancellers, capture);
+                            }
 
-                                if (finishCount.incrementAndGet() >= promiseCount) {
-                                    final Result<TOut> ret = result.get();
-                                    if (ret != null) {
-                                        deferrable.setResult(ret);
-                                    } else {
-                                        deferrable.setCanceled();
-                                    }
+                            if (finishCount.incrementAndGet() >= promiseCount) {
+                                final Result<TOut> ret = result.get();
+                                if (ret != null) {
+                                    deferrable.setResult(ret);
+                                } else {
+                                    deferrable.setCanceled();
                                 }
                             }
-                        }).submit(entryParams.getTag());
-                        cancellers[i] = canceller;
+                        }
+                    }).submit(entryParams.getTag());
+                    cancellers.set(i, canceller);
+
+                    //The other promise may have finished before this canceller was visible.
+                    if (result.get() != null) {
+                        canceller.cancel();
                     }
-                } finally {
-                    prepared.set();
                 }
 
-                deferrable.setCancellable(new Cancellable() {
-                    @Override
-                    public void cancel() {
-                        for (Canceller canceller : cancellers) {
-                            canceller.cancel();
-                        }
-                    }
-                });
+                deferrable.setCancellable(cancelAll(cancellers));
 
                 return deferrable;
             }
@@ -457,6 +455,82 @@ public final class Promises {
         });
     }
 
+    /**
+     * Promise to map each element of the collection by the promise that the callback makes, at most maxParallelism at once.
+     * The elements are pulled lazily when a new promise can start, and the results are in order of the elements.
+     * The first failure or cancellation stops pulling the elements and cancels the running promises.
+     *
+     * @param ite            the collection of the elements
+     * @param maxParallelism the maximum number of the promises running at once
+     * @param callback       the callback to make the promise for each element
+     * @param <TIn>          the type of element
+     * @param <TOut>         the type of mapped value
+     * @return promise to return the mapped values
+     */
+    public static <TIn, TOut> Promise<List<TOut>> mapParallel(final Iterable<TIn> ite, final int maxParallelism, final MapCallback<TIn, TOut> callback) {
+        return when(new WhenCallback<List<TOut>>() {
+            @Override
+            public Deferred<List<TOut>> run(WhenParams params) throws Exception {
+                return new ParallelMap<>(ite.iterator(), maxParallelism, callback, params).start();
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #mapParallel(Iterable, int, MapCallback)} but takes the iterator.
+     * The iterator can be consumed only once, so the returned promise should be submitted once.
+     *
+     * @param iterator       the iterator of the elements
+     * @param maxParallelism the maximum number of the promises running at once
+     * @param callback       the callback to make the promise for each element
+     * @param <TIn>          the type of element
+     * @param <TOut>         the type of mapped value
+     * @return promise to return the mapped values
+     */
+    public static <TIn, TOut> Promise<List<TOut>> mapParallel(final Iterator<TIn> iterator, final int maxParallelism, final MapCallback<TIn, TOut> callback) {
+        return when(new WhenCallback<List<TOut>>() {
+            @Override
+            public Deferred<List<TOut>> run(WhenParams params) throws Exception {
+                return new ParallelMap<>(iterator, maxParallelism, callback, params).start();
+            }
+        });
+    }
+
+    private static <TOut> Promise<TOut> timeout(final EntryPoint entryPoint, final long timeoutMillis) {
+        return when(new WhenCallback<TOut>() {
+            @Override
+            public Deferred<TOut> run(final WhenParams params) throws Exception {
+                //The deadline is held by the source linked to the caller, so it is canceled by either of them.
+                final CancelTokenSource deadline = new CancelTokenSource(params.getCancelToken()).cancelAfter(timeoutMillis);
+                final Deferrable<TOut> deferred = new Deferrable<>();
+
+                //Fails on the deadline without waiting for the upstream that does not observe the cancellation.
+                deadline.register(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (deadline.isTimedOut()) {
+                            deferred.setFailed(new PromiseTimeoutException(timeoutMillis));
+                        }
+                    }
+                });
+                deferred.setCancellable(entryPoint.submitLinked(mDefaultExecutorService, params.getTag(), deadline, new FinishCallback<TOut>() {
+                    @Override
+                    public void run(final FinishParams<TOut> finishParams) {
+                        final Result<TOut> result = finishParams.asResult();
+                        if (result.getCancelToken().isCanceled() && deadline.isTimedOut()) {
+                            deferred.setFailed(new PromiseTimeoutException(timeoutMillis));
+                        } else {
+                            deferred.setResult(result);
+                        }
+                        //Stops the timer and unlinks from the caller.
+                        deadline.close();
+                    }
+                }));
+                return deferred;
+            }
+        });
+    }
+
     private static <TIn, TOut> Deferred<TOut> runSuccessCallback(final ResultParams<TIn> params, final SuccessCallback<TIn, TOut> callback) throws Exception {
 
         final CancelToken cancelToken = params.getCancelToken();
@@ -497,85 +571,364 @@ public final class Promises {
             return callback.run(new FailParams<TIn>(e, cancelToken, params.getScope(), params.getTag()));
         }
 
-        return Defer.success(params.getValue());
+        return params.asDeferred();
     }
 
+    //The execute methods return true if the chain is completed or false if the chain is suspended.
+
     private interface EntryPoint extends Submittable {
-        void execute(final CancelToken cancelToken, final CloseableStack scope, final Object tag);
+        boolean execute(final Execution execution);
+
+        /**
+         * Submits the chain with the canceller linked to the parent token, so the chain is canceled with the parent
+         * and inherits its deadline.
+         * The chain must end with {@link LinkedFinish}, which passes the result to the finish callback of this submission.
+         */
+        Canceller submitLinked(final ExecutorService executorService, final Object tag, final CancelToken parent,
+                               final FinishCallback<?> finishCallback);
     }
 
     private interface NextPoint<TIn> {
-        void execute(final Result<TIn> input, final CancelToken cancelToken, final CloseableStack scope, final Object tag);
+        boolean execute(final Result<TIn> input, final Execution execution);
     }
 
-    private static final class FutureCanceller implements Canceller {
+    private interface Step<T> {
+        boolean proceed(final Result<T> result, final Execution execution);
+    }
 
-        private final Lock mLock;
-        private final Runnable mCancelCallback;
-        private volatile boolean mIsLaunched;
-        private volatile boolean mIsCanceled;
-        private volatile Future<?> mFuture;
+    private interface Segment {
+        boolean run();
+    }
 
-        FutureCanceller(final Runnable cancelCallback) {
-            mCancelCallback = cancelCallback;
-            mLock = new ReentrantLock();
+    /**
+     * The states of the callback chain execution.
+     * In non-blocking mode, the chain is suspended on an incomplete {@link Deferrable} and is resumed on the executor.
+     */
+    private static final class Execution implements Cancellable {
+
+        private final CancelToken mCancelToken;
+        private final ArrayCloseableStack mScope;
+        private final Object mTag;
+        private final ExecutorService mExecutorService;
+        private final FutureCanceller mCanceller;
+        private final Runnable mPostProcess;
+        private final FinishCallback<?> mFinishCallback;
+        private volatile Deferrable<?> mSuspended;
+
+        Execution(final CancelToken cancelToken, final ArrayCloseableStack scope, final Object tag,
+                  final ExecutorService executorService, final FutureCanceller canceller, final Runnable postProcess,
+                  final FinishCallback<?> finishCallback) {
+            mCancelToken = cancelToken;
+            mScope = scope;
+            mTag = tag;
+            mExecutorService = executorService;
+            mCanceller = canceller;
+            mPostProcess = postProcess;
+            mFinishCallback = finishCallback;
+        }
+
+        Execution(final CancelToken cancelToken, final ArrayCloseableStack scope, final Object tag,
+                  final ExecutorService executorService, final FutureCanceller canceller, final Runnable postProcess) {
+            this(cancelToken, scope, tag, executorService, canceller, postProcess, null);
+        }
+
+        Execution(final CancelToken cancelToken, final ArrayCloseableStack scope, final Object tag) {
+            this(cancelToken, scope, tag, null, null, null);
+        }
+
+        CancelToken getCancelToken() {
+            return mCancelToken;
+        }
+
+        ArrayCloseableStack getScope() {
+            return mScope;
+        }
+
+        Object getTag() {
+            return mTag;
+        }
+
+        /**
+         * Returns the finish callback given to {@link EntryPoint#submitLinked(ExecutorService, Object, CancelToken, FinishCallback)},
+         * or {@code null}.
+         */
+        FinishCallback<?> getFinishCallback() {
+            return mFinishCallback;
+        }
+
+        <T> boolean await(final Deferred<T> deferred, final Step<T> step) {
+            if (mExecutorService != null && deferred instanceof Deferrable) {
+                final Deferrable<T> deferrable = (Deferrable<T>) deferred;
+                mSuspended = deferrable;
+                final boolean isListening = deferrable.listen(new SingleAssignment.OnAssignedListener<Result<T>>() {
+                    @Override
+                    public void onAssigned(final Result<T> result) {
+                        resume(new Segment() {
+                            @Override
+                            public boolean run() {
+                                return step.proceed(result, Execution.this);
+                            }
+                        });
+                    }
+                });
+                if (isListening) {
+                    //Same as the interruption of the blocking wait.
+                    if (mCancelToken.isCanceled()) {
+                        deferrable.cancel();
+                    }
+                    return false;
+                }
+                mSuspended = null;
+            }
+
+            return step.proceed(deferred.getResult(), this);
         }
 
         @Override
         public void cancel() {
-            mLock.lock();
-            try {
-                if (mIsCanceled) {
-                    return;
-                }
+            final Deferrable<?> suspended = mSuspended;
+            if (suspended != null) {
+                suspended.cancel();
+            }
+        }
 
-                mIsCanceled = true;
-                if (mFuture != null) {
-                    mFuture.cancel(true);
-                }
-                if (mIsLaunched) {
-                    return;
+        private void resume(final Segment segment) {
+            final Runnable runnable = new Runnable() {
+                @Override
+                public void run() {
+                    mSuspended = null;
+                    if (mCanceller != null) {
+                        mCanceller.attachThread(Thread.currentThread());
+                    }
+                    try {
+                        runSegment(segment);
+                    } finally {
+                        if (mCanceller != null) {
+                            mCanceller.attachThread(null);
+                        }
+                    }
                 }
+            };
+
+            try {
+                mExecutorService.execute(runnable);
+            } catch (final RejectedExecutionException e) {
+                runnable.run();
+            }
+        }
 
+        void runSegment(final Segment segment) {
+            boolean isSuspended = false;
+            boolean hasCriticalError = false;
+            try {
+                isSuspended = !segment.run();
+            } catch (final Exception e) {
+                hasCriticalError = true;
+                Log.e("loilo-promise", "InitialPromise: Promise exception occurred.", e);
+                Dispatcher.getMainDispatcher().run(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Throw on main thread to crash the application.
+                        throw e;
+                    }
+                });
+            } catch (final Error e) {
+                hasCriticalError = true;
+                Log.wtf("loilo-promise", "InitialPromise: Promise error occurred.", e);
+                Dispatcher.getMainDispatcher().run(new Runnable() {
+                    @Override
+                    public void run() {
+                        //Throw on main thread to crash the application.
+                        throw e;
+                    }
+                });
             } finally {
-                mLock.unlock();
+                if (!isSuspended) {
+                    try {
+                        mScope.close();
+                    } catch (final Exception e) {
+                        if (!hasCriticalError) {
+                            hasCriticalError = true;
+                            Log.e("loilo-promise", "InitialPromise: Promise exception occurred.", e);
+                            Dispatcher.getMainDispatcher().run(new Runnable() {
+                                @Override
+                                public void run() {
+                                    //Throw on main thread to crash the application.
+                                    throw e;
+                                }
+                            });
+                        }
+                    } catch (final Error e) {
+                        if (!hasCriticalError) {
+                            hasCriticalError = true;
+                            Log.wtf("loilo-promise", "InitialPromise: Scope close error occurred.", e);
+                            Dispatcher.getMainDispatcher().run(new Runnable() {
+                                @Override
+                                public void run() {
+                                    //Throw on main thread to crash the application.
+                                    throw e;
+                                }
+                            });
+                        }
+                    } finally {
+                        if (!hasCriticalError && mPostProcess != null) {
+                            try {
+                                mPostProcess.run();
+                            } catch (final Exception e) {
+                                Log.e("loilo-promise", "InitialPromise: Promise exception occurred.", e);
+                                Dispatcher.getMainDispatcher().run(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        //Throw on main thread to crash the application.
+                                        throw e;
+                                    }
+                                });
+                            } catch (final Error e) {
+                                Log.wtf("loilo-promise", "InitialPromise: Promise error occurred.", e);
+                                Dispatcher.getMainDispatcher().run(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        //Throw on main thread to crash the application.
+                                        throw e;
+                                    }
+                                });
+                            }
+                        }
+                    }
+                }
             }
+        }
+    }
 
-            //If Promise was canceled before the execution, invoke the callback on the default thread.
-            mDefaultExecutorService.execute(mCancelCallback);
+    /**
+     * The canceller of the submitted chain. The launch and the cancel are the transitions of one atomic state,
+     * so only one of the chain and the cancel callback runs.
+     * The state is the only source of {@link #isCanceled()}, so the launch and the reads take no lock.
+     * The cancel takes the lock of the source only to detach the registrations, which are made on demand.
+     */
+    private static final class FutureCanceller extends CancelTokenSource {
+
+        private static final int NEW = 0;
+        private static final int LAUNCHED = 1;
+        private static final int CANCELED_BEFORE_LAUNCH = 2;
+        private static final int CANCELED_AFTER_LAUNCH = 3;
+
+        private static final AtomicIntegerFieldUpdater<FutureCanceller> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(FutureCanceller.class, "mState");
+        private static final AtomicReferenceFieldUpdater<FutureCanceller, Thread> RESUMED_THREAD =
+                AtomicReferenceFieldUpdater.newUpdater(FutureCanceller.class, Thread.class, "mResumedThread");
+        //Set while the resumed thread is being interrupted, so the thread is not detached and reused in the meantime.
+        private static final Thread INTERRUPTING = new Thread();
+
+        private final Runnable mCancelCallback;
+        private volatile int mState = NEW;
+        private volatile Future<?> mFuture;
+        private volatile Execution mExecution;
+        private volatile Thread mResumedThread;
+
+        FutureCanceller(final Runnable cancelCallback) {
+            mCancelCallback = cancelCallback;
         }
 
         @Override
         public boolean isCanceled() {
-            mLock.lock();
-            try {
-                return mIsCanceled;
-            } finally {
-                mLock.unlock();
+            return mState >= CANCELED_BEFORE_LAUNCH;
+        }
+
+        @Override
+        boolean markCanceled() {
+            for (; ; ) {
+                final int state = mState;
+                if (state == NEW) {
+                    if (STATE.compareAndSet(this, NEW, CANCELED_BEFORE_LAUNCH)) {
+                        return true;
+                    }
+                } else if (state == LAUNCHED) {
+                    if (STATE.compareAndSet(this, LAUNCHED, CANCELED_AFTER_LAUNCH)) {
+                        return true;
+                    }
+                } else {
+                    return false;
+                }
             }
         }
 
-        boolean notifyLaunched() {
-            mLock.lock();
+        @Override
+        protected void onCanceled() {
+            //Called once after markCanceled, so the state is one of the canceled states.
+            if (mState == CANCELED_BEFORE_LAUNCH) {
+                cancelFuture(false);
+                //If Promise was canceled before the execution, invoke the callback on the default thread.
+                mDefaultExecutorService.execute(mCancelCallback);
+                return;
+            }
+
+            cancelFuture(true);
+            interruptResumedThread();
+            //Wake up the chain that is suspended on an incomplete Deferrable.
+            final Execution execution = mExecution;
+            if (execution != null) {
+                execution.cancel();
+            }
+        }
+
+        private void cancelFuture(final boolean mayInterruptIfRunning) {
+            final Future<?> future = mFuture;
+            if (future != null) {
+                future.cancel(mayInterruptIfRunning);
+            }
+        }
+
+        private void interruptResumedThread() {
+            final Thread thread = mResumedThread;
+            if (thread == null || thread == INTERRUPTING || !RESUMED_THREAD.compareAndSet(this, thread, INTERRUPTING)) {
+                return;
+            }
             try {
-                mIsLaunched = true;
-                return !mIsCanceled;
+                thread.interrupt();
             } finally {
-                mLock.unlock();
+                mResumedThread = thread;
             }
         }
 
+        boolean notifyLaunched() {
+            return STATE.compareAndSet(this, NEW, LAUNCHED);
+        }
+
         void setFuture(final Future<?> future) {
-            mLock.lock();
-            try {
-                mFuture = future;
-            } finally {
-                mLock.unlock();
+            mFuture = future;
+            //The cancel may have missed the future.
+            final int state = mState;
+            if (state == CANCELED_BEFORE_LAUNCH || state == CANCELED_AFTER_LAUNCH) {
+                future.cancel(state == CANCELED_AFTER_LAUNCH);
+            }
+        }
+
+        void setExecution(final Execution execution) {
+            mExecution = execution;
+        }
+
+        void attachThread(final Thread thread) {
+            if (thread != null) {
+                mResumedThread = thread;
+                return;
+            }
+
+            for (; ; ) {
+                final Thread current = mResumedThread;
+                if (current == INTERRUPTING) {
+                    //Waits for the cancel to finish interrupting this thread.
+                    Thread.yield();
+                    continue;
+                }
+                if (RESUMED_THREAD.compareAndSet(this, current, null)) {
+                    return;
+                }
             }
         }
     }
 
-    private static final class NextDeferred<TOut> implements NextPoint<TOut>, Deferred<TOut> {
+    private static final class NextDeferred<TOut> implements NextPoint<TOut> {
 
         private final Deferrable<TOut> mDeferrable;
 
@@ -584,14 +937,25 @@ public final class Promises {
         }
 
         @Override
-        public void execute(final Result<TOut> input, final CancelToken cancelToken, final CloseableStack scope, final Object tag) {
+        public boolean execute(final Result<TOut> input, final Execution execution) {
             mDeferrable.setResult(input);
+            return true;
         }
 
+        Deferred<TOut> get(final EntryPoint entryPoint, final TaggedCancelState state) {
+            final ExecutorService executorService = mIsNonBlockingContinuationEnabled ? mDefaultExecutorService : null;
+            final Execution execution = new Execution(state.getCancelToken(), new ArrayCloseableStack(), state.getTag(), executorService, null, null);
+            mDeferrable.setCancellable(execution);
 
-        @Override
-        public Result<TOut> getResult() {
-            return mDeferrable.getResult();
+            boolean isSuspended = false;
+            try {
+                isSuspended = !entryPoint.execute(execution);
+                return mDeferrable;
+            } finally {
+                if (!isSuspended) {
+                    execution.getScope().close();
+                }
+            }
         }
     }
 
@@ -636,12 +1000,41 @@ public final class Promises {
         }
 
         @Override
-        public void execute(final Result<TIn> input, final CancelToken cancelToken, final CloseableStack scope, final Object tag) {
-            mFinishCallback.run(new FinishParams<>(input, scope, tag));
+        public Canceller submitOn(Scheduler scheduler, Object tag, int priority) {
+            return submitOn(scheduler, tag, priority, Scheduler.NO_DEADLINE);
+        }
+
+        @Override
+        public Canceller submitOn(Scheduler scheduler, Object tag, int priority, long deadlineMillis) {
+            return mEntryPoint.submitOn(scheduler, tag, priority, deadlineMillis);
+        }
+
+        @Override
+        public boolean execute(final Result<TIn> input, final Execution execution) {
+            mFinishCallback.run(new FinishParams<>(input, execution.getScope(), execution.getTag()));
+            return true;
+        }
+    }
+
+    /**
+     * The end of the chain bound once by {@link Promise#timeout(long)}.
+     * Each submission gives its own finish callback through the execution, so the chain is not re-bound per run.
+     */
+    private static final class LinkedFinish<TIn> implements NextPoint<TIn> {
+
+        @Override
+        public boolean execute(final Result<TIn> input, final Execution execution) {
+            @SuppressWarnings("unchecked") final FinishCallback<TIn> finishCallback = (FinishCallback<TIn>) execution.getFinishCallback();
+            //Submitted without submitLinked. There is no one to receive the result.
+            if (finishCallback == null) {
+                return true;
+            }
+            finishCallback.run(new FinishParams<>(input, execution.getScope(), execution.getTag()));
+            return true;
         }
     }
 
-    private static final class ContinuationPromise<TIn, TOut> implements Promise<TOut>, NextPoint<TIn> {
+    private static final class ContinuationPromise<TIn, TOut> implements Promise<TOut>, NextPoint<TIn>, Step<TOut> {
 
         private final EntryPoint mEntryPoint;
         private final ThenCallback<TIn, TOut> mThenCallback;
@@ -657,10 +1050,10 @@ public final class Promises {
         }
 
         @Override
-        public void execute(final Result<TIn> input, final CancelToken cancelToken, final CloseableStack scope, final Object tag) {
+        public boolean execute(final Result<TIn> input, final Execution execution) {
             Deferred<TOut> deferred = null;
             try {
-                deferred = mThenCallback.run(new ThenParams<>(input, scope, tag));
+                deferred = mThenCallback.run(new ThenParams<>(input, execution.getScope(), execution.getTag()));
             } catch (final InterruptedException e) {
                 deferred = Defer.cancel();
                 Thread.currentThread().interrupt();
@@ -674,33 +1067,32 @@ public final class Promises {
                 }
             }
 
-            final Result<TOut> output = Results.exchangeCancelToken(deferred.getResult(), cancelToken);
+            return execution.await(deferred, this);
+        }
+
+        @Override
+        public boolean proceed(final Result<TOut> result, final Execution execution) {
+            final Result<TOut> output = Results.exchangeCancelToken(result, execution.getCancelToken());
 
             if (mNextPoint != null) {
-                mNextPoint.execute(output, cancelToken, scope, tag);
-            } else {
-                if (output.getCancelToken().isCanceled()) {
-                    return;
-                }
-                final Exception e = output.getException();
-                if (e != null) {
-                    throw new UnhandledException("Unhandled exception occurred.", e);
-                }
+                return mNextPoint.execute(output, execution);
+            }
+
+            if (output.getCancelToken().isCanceled()) {
+                return true;
             }
+            final Exception e = output.getException();
+            if (e != null) {
+                throw new UnhandledException("Unhandled exception occurred.", e);
+            }
+            return true;
         }
 
         @Override
         public Deferred<TOut> get(TaggedCancelState state) {
             final NextDeferred<TOut> next = new NextDeferred<>();
             setNextPoint(next);
-
-            final ArrayCloseableStack scope = new ArrayCloseableStack();
-            try {
-                mEntryPoint.execute(state.getCancelToken(), scope, state.getTag());
-                return next;
-            } finally {
-                scope.close();
-            }
+            return next.get(mEntryPoint, state);
         }
 
         @Override
@@ -787,6 +1179,16 @@ public final class Promises {
             return submitOn(scheduler, null);
         }
 
+        @Override
+        public Canceller submitOn(Scheduler scheduler, Object tag, int priority) {
+            return submitOn(scheduler, tag, priority, Scheduler.NO_DEADLINE);
+        }
+
+        @Override
+        public Canceller submitOn(Scheduler scheduler, Object tag, int priority, long deadlineMillis) {
+            return mEntryPoint.submitOn(scheduler, tag, priority, deadlineMillis);
+        }
+
         @Override
         public <TNextOut> Promise<TNextOut> then(ThenCallback<TOut, TNextOut> thenCallback) {
             final ContinuationPromise<TOut, TNextOut> continuationTask = new ContinuationPromise<>(mEntryPoint, thenCallback);
@@ -841,6 +1243,15 @@ public final class Promises {
             return last;
         }
 
+        @Override
+        public Promise<TOut> timeout(final long timeoutMillis) {
+            if (timeoutMillis < 0) {
+                throw new IllegalArgumentException("timeoutMillis must not be negative.");
+            }
+            setNextPoint(new LinkedFinish<TOut>());
+            return Promises.timeout(mEntryPoint, timeoutMillis);
+        }
+
         @Override
         public <TReplace> Promise<TReplace> exchange(final TReplace replace) {
             return then(new ThenCallback<TOut, TReplace>() {
@@ -853,7 +1264,7 @@ public final class Promises {
         }
     }
 
-    private static final class InitialPromise<TOut> implements Promise<TOut>, EntryPoint, Job {
+    private static final class InitialPromise<TOut> implements Promise<TOut>, EntryPoint, Step<TOut>, Job {
 
         private final WhenCallback<TOut> mWhenCallback;
         private NextPoint<TOut> mNextPoint;
@@ -867,15 +1278,16 @@ public final class Promises {
         }
 
         @Override
-        public void execute(final CancelToken cancelToken, final CloseableStack scope, final Object tag) {
+        public boolean execute(final Execution execution) {
 
+            final CancelToken cancelToken = execution.getCancelToken();
             Deferred<TOut> handle = null;
             //Do not call the initial callback when Promise was already canceled.
             if (cancelToken.isCanceled()) {
                 handle = Defer.cancel();
             } else {
                 try {
-                    handle = mWhenCallback.run(new WhenParams(cancelToken, scope, tag));
+                    handle = mWhenCallback.run(new WhenParams(cancelToken, execution.getScope(), execution.getTag()));
                 } catch (final InterruptedException e) {
                     handle = Defer.cancel();
                     Thread.currentThread().interrupt();
@@ -890,34 +1302,33 @@ public final class Promises {
                 }
             }
 
-            final Result<TOut> result = Results.exchangeCancelToken(handle.getResult(), cancelToken);
+            return execution.await(handle, this);
+        }
+
+        @Override
+        public boolean proceed(final Result<TOut> input, final Execution execution) {
+            final Result<TOut> result = Results.exchangeCancelToken(input, execution.getCancelToken());
 
             if (mNextPoint != null) {
-                mNextPoint.execute(result, cancelToken, scope, tag);
-            } else {
-                if (result.getCancelToken().isCanceled()) {
-                    return;
-                }
+                return mNextPoint.execute(result, execution);
+            }
 
-                final Exception e = result.getException();
-                if (e != null) {
-                    throw new UnhandledException("Promise unhandled exception occurred.", e);
-                }
+            if (result.getCancelToken().isCanceled()) {
+                return true;
+            }
+
+            final Exception e = result.getException();
+            if (e != null) {
+                throw new UnhandledException("Promise unhandled exception occurred.", e);
             }
+            return true;
         }
 
         @Override
         public Deferred<TOut> get(TaggedCancelState state) {
             final NextDeferred<TOut> next = new NextDeferred<>();
             setNextPoint(next);
-
-            final ArrayCloseableStack scope = new ArrayCloseableStack();
-            try {
-                execute(state.getCancelToken(), scope, state.getTag());
-                return next;
-            } finally {
-                scope.close();
-            }
+            return next.get(this, state);
         }
 
         @Override
@@ -976,7 +1387,8 @@ public final class Promises {
             });
         }
 
-        private Canceller submitOn(final ExecutorService executorService, final Object tag, final Runnable postProcess) {
+        private Canceller submitOn(final ExecutorService executorService, final Object tag, final Runnable postProcess, final CancelToken parent,
+                                   final FinishCallback<?> finishCallback) {
             //This method is the entry point of Promise. All of the instances of other Promise eventually call this.
 
             final FutureCanceller canceller = new FutureCanceller(new Runnable() {
@@ -985,7 +1397,7 @@ public final class Promises {
                     boolean hasCriticalError = false;
                     final ArrayCloseableStack scope = new ArrayCloseableStack();
                     try {
-                        execute(CancelTokens.CANCELED, scope, tag);
+                        execute(new Execution(CancelTokens.CANCELED, scope, tag, null, null, null, finishCallback));
                     } catch (final Exception e) {
                         hasCriticalError = true;
                         Log.e("loilo-promise", "InitialPromise: Promise exception occurred on canceling.", e);
@@ -1061,6 +1473,10 @@ public final class Promises {
                     }
                 }
             });
+            if (parent != null) {
+                canceller.link(parent);
+            }
+            final ExecutorService resumeExecutorService = mIsNonBlockingContinuationEnabled ? executorService : null;
             final Future<?> future = executorService.submit(new Runnable() {
                 @Override
                 public void run() {
@@ -1069,83 +1485,14 @@ public final class Promises {
                         return;
                     }
 
-                    boolean hasCriticalError = false;
-                    final ArrayCloseableStack scope = new ArrayCloseableStack();
-                    try {
-                        execute(canceller, scope, tag);
-                    } catch (final Exception e) {
-                        hasCriticalError = true;
-                        Log.e("loilo-promise", "InitialPromise: Promise exception occurred.", e);
-                        Dispatcher.getMainDispatcher().run(new Runnable() {
-                            @Override
-                            public void run() {
-                                //Throw on main thread to crash the application.
-                                throw e;
-                            }
-                        });
-                    } catch (final Error e) {
-                        hasCriticalError = true;
-                        Log.wtf("loilo-promise", "InitialPromise: Promise error occurred.", e);
-                        Dispatcher.getMainDispatcher().run(new Runnable() {
-                            @Override
-                            public void run() {
-                                //Throw on main thread to crash the application.
-                                throw e;
-                            }
-                        });
-                    } finally {
-                        try {
-                            scope.close();
-                        } catch (final Exception e) {
-                            if (!hasCriticalError) {
-                                hasCriticalError = true;
-                                Log.e("loilo-promise", "InitialPromise: Promise exception occurred.", e);
-                                Dispatcher.getMainDispatcher().run(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        //Throw on main thread to crash the application.
-                                        throw e;
-                                    }
-                                });
-                            }
-                        } catch (final Error e) {
-                            if (!hasCriticalError) {
-                                hasCriticalError = true;
-                                Log.wtf("loilo-promise", "InitialPromise: Scope close error occurred.", e);
-                                Dispatcher.getMainDispatcher().run(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        //Throw on main thread to crash the application.
-                                        throw e;
-                                    }
-                                });
-                            }
-                        } finally {
-                            if (!hasCriticalError && postProcess != null) {
-                                try {
-                                    postProcess.run();
-                                } catch (final Exception e) {
-                                    Log.e("loilo-promise", "InitialPromise: Promise exception occurred.", e);
-                                    Dispatcher.getMainDispatcher().run(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            //Throw on main thread to crash the application.
-                                            throw e;
-                                        }
-                                    });
-                                } catch (final Error e) {
-                                    Log.wtf("loilo-promise", "InitialPromise: Promise error occurred.", e);
-                                    Dispatcher.getMainDispatcher().run(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            //Throw on main thread to crash the application.
-                                            throw e;
-                                        }
-                                    });
-                                }
-                            }
+                    final Execution execution = new Execution(canceller, new ArrayCloseableStack(), tag, resumeExecutorService, canceller, postProcess, finishCallback);
+                    canceller.setExecution(execution);
+                    execution.runSegment(new Segment() {
+                        @Override
+                        public boolean run() {
+                            return execute(execution);
                         }
-                    }
+                    });
                 }
             });
             canceller.setFuture(future);
@@ -1155,7 +1502,13 @@ public final class Promises {
 
         @Override
         public Canceller submitOn(final ExecutorService executorService, final Object tag) {
-            return submitOn(executorService, tag, null);
+            return submitOn(executorService, tag, null, null, null);
+        }
+
+        @Override
+        public Canceller submitLinked(final ExecutorService executorService, final Object tag, final CancelToken parent,
+                                      final FinishCallback<?> finishCallback) {
+            return submitOn(executorService, tag, null, parent, finishCallback);
         }
 
         @Override
@@ -1176,7 +1529,7 @@ public final class Promises {
 
         @Override
         public Canceller doWork(Object tag, Runnable postProcess) {
-            return submitOn(mDefaultExecutorService, tag, postProcess);
+            return submitOn(mDefaultExecutorService, tag, postProcess, null, null);
         }
 
         @Override
@@ -1187,7 +1540,7 @@ public final class Promises {
                     boolean hasCriticalError = false;
                     final ArrayCloseableStack scope = new ArrayCloseableStack();
                     try {
-                        execute(CancelTokens.CANCELED, scope, tag);
+                        execute(new Execution(CancelTokens.CANCELED, scope, tag));
                     } catch (final Exception e) {
                         hasCriticalError = true;
                         Log.e("loilo-promise", "InitialPromise: Promise exception occurred on canceling.", e);
@@ -1249,6 +1602,16 @@ public final class Promises {
             return submitOn(scheduler, null);
         }
 
+        @Override
+        public Canceller submitOn(Scheduler scheduler, Object tag, int priority) {
+            return submitOn(scheduler, tag, priority, Scheduler.NO_DEADLINE);
+        }
+
+        @Override
+        public Canceller submitOn(Scheduler scheduler, Object tag, int priority, long deadlineMillis) {
+            return scheduler.post(this, tag, priority, deadlineMillis);
+        }
+
         @Override
         public <TNextOut> Promise<TNextOut> then(final ThenCallback<TOut, TNextOut> thenCallback) {
             final ContinuationPromise<TOut, TNextOut> continuationTask = new ContinuationPromise<>(this, thenCallback);
@@ -1303,6 +1666,15 @@ public final class Promises {
             return last;
         }
 
+        @Override
+        public Promise<TOut> timeout(final long timeoutMillis) {
+            if (timeoutMillis < 0) {
+                throw new IllegalArgumentException("timeoutMillis must not be negative.");
+            }
+            setNextPoint(new LinkedFinish<TOut>());
+            return Promises.timeout(this, timeoutMillis);
+        }
+
         @Override
         public <TReplace> Promise<TReplace> exchange(final TReplace replace) {
             return then(new ThenCallback<TOut, TReplace>() {
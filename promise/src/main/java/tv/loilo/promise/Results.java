@@ -22,16 +22,33 @@ import java.util.concurrent.CancellationException;
  * Class to make a {@link Result}.
  */
 public final class Results {
+    //Shared instances for the constant outcomes. A result is immutable, so they are safe to share.
+    private static final SimpleResult<Object> CANCELED = new SimpleResult<>(false, null, null, CancelTokens.CANCELED);
+    private static final SimpleResult<Object> NULL_SUCCESS = new SimpleResult<>(true, null, null, CancelTokens.NONE);
+    private static final SimpleResult<Object> TRUE_SUCCESS = new SimpleResult<Object>(true, Boolean.TRUE, null, CancelTokens.NONE);
+    private static final SimpleResult<Object> FALSE_SUCCESS = new SimpleResult<Object>(true, Boolean.FALSE, null, CancelTokens.NONE);
+
     private Results() {
 
     }
 
+    @SuppressWarnings("unchecked")
     public static <T> Result<T> success(T value) {
+        if (value == null) {
+            return (Result<T>) NULL_SUCCESS;
+        }
+        if (value == Boolean.TRUE) {
+            return (Result<T>) TRUE_SUCCESS;
+        }
+        if (value == Boolean.FALSE) {
+            return (Result<T>) FALSE_SUCCESS;
+        }
         return new SimpleResult<>(true, value, null, CancelTokens.NONE);
     }
 
+    @SuppressWarnings("unchecked")
     public static <T> Result<T> cancel() {
-        return new SimpleResult<>(false, null, null, CancelTokens.CANCELED);
+        return (Result<T>) CANCELED;
     }
 
     public static <T> Result<T> fail(Throwable e) {
@@ -60,7 +77,9 @@ public final class Results {
     }
 
     public static <T> Result<T> exchangeCancelToken(Result<T> result, CancelToken cancelToken) {
-        if (result.getCancelToken().isCanceled()) {
+        final CancelToken currentCancelToken = result.getCancelToken();
+        //Passes the result through without re-wrapping when the token is already the same.
+        if (currentCancelToken == cancelToken || currentCancelToken.isCanceled()) {
             return result;
         }
 
@@ -77,7 +96,11 @@ public final class Results {
         return new SimpleResult<>(hasValue, value, e, cancelToken);
     }
 
-    private static class SimpleResult<T> implements Result<T> {
+    /**
+     * The result that is also the completed {@link Deferred} of itself,
+     * so that {@link Defer} can return it without another allocation.
+     */
+    static final class SimpleResult<T> implements Result<T>, Deferred<T> {
 
         private final boolean mHasValue;
         private final T mValue;
@@ -138,5 +161,10 @@ public final class Results {
         public CancelToken getCancelToken() {
             return mCancelToken;
         }
+
+        @Override
+        public Result<T> getResult() {
+            return this;
+        }
     }
 }
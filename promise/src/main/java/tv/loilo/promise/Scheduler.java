@@ -16,16 +16,35 @@
 
 package tv.loilo.promise;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Class to limit the number of tasks running at once.
+ * <p>
+ * The pending tasks start in order of the priority, and in the posted order within the same priority.
+ * A waiting task gains one priority level every aging interval, so that the low priority tasks are not starved.
+ * A task that is not started until its deadline is given up by {@link Job#giveUp(Object)} without running.
+ * The deadline is driven by {@link PromiseTimer}, so the task is given up on time even while no other task is posted or finished.
+ */
 public final class Scheduler {
 
+    public static final int PRIORITY_DEFAULT = 0;
+
+    public static final long NO_DEADLINE = -1;
+
+    private static final long DEFAULT_AGING_INTERVAL_MILLIS = 1000;
+
     private static MessageLoop mMessageLoop = null;
 
     private static Dispatcher mDispatcher = null;
 
+    //Scheduler itself does not use this dispatcher, but it is kept for the existing callers.
     public static Dispatcher getDispatcher() {
         Dispatcher dispatcher = mDispatcher;
         if (dispatcher == null) {
@@ -44,123 +63,317 @@ public final class Scheduler {
     }
 
     private final int mMaxThreads;
-    private final ArrayList<Task> mPendingTasks = new ArrayList<>();
-    private final HashSet<Task> mRunningTasks = new HashSet<>();
+    //0 if aging is disabled.
+    private final long mAgingIntervalNanos;
+    //The number of tasks that can start now. Not used when the concurrency is unlimited.
+    private final AtomicInteger mPermits;
+    private final AtomicLong mSequence = new AtomicLong();
+    //Canceled tasks are left in the queues and skipped on dequeue, so that the cancellation is O(1).
+    //The tasks with the default priority are in FIFO order, so they do not need the heap.
+    private final ConcurrentLinkedQueue<Task> mPendingTasks = new ConcurrentLinkedQueue<>();
+    private final PriorityBlockingQueue<Task> mPrioritizedTasks;
+    //The number of drain requests. Only the thread that raised it from zero drains the queues.
+    private final AtomicInteger mDrainRequests = new AtomicInteger();
 
     public Scheduler(int maxThreads) {
+        this(maxThreads, DEFAULT_AGING_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param maxThreads          the maximum number of running tasks, or 0 for no limit
+     * @param agingIntervalMillis the waiting time to gain one priority level, or 0 to disable aging
+     */
+    public Scheduler(int maxThreads, long agingIntervalMillis) {
         mMaxThreads = maxThreads;
+        mAgingIntervalNanos = Math.max(0, TimeUnit.MILLISECONDS.toNanos(agingIntervalMillis));
+        mPermits = new AtomicInteger(maxThreads);
+        mPrioritizedTasks = new PriorityBlockingQueue<>(11, new Comparator<Task>() {
+            @Override
+            public int compare(Task lhs, Task rhs) {
+                return compareOrder(lhs, rhs);
+            }
+        });
     }
 
-    private boolean isRunnable() {
-        return mMaxThreads <= 0 || mMaxThreads > mRunningTasks.size();
+    private static int compareLong(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
     }
 
-    private void runTask(final Task task) {
-        task.run(new Runnable() {
-            @Override
-            public void run() {
-                getDispatcher().run(new Runnable() {
-                    @Override
-                    public void run() {
-                        mRunningTasks.remove(task);
-                        if (!isRunnable() || mPendingTasks.size() <= 0) {
-                            return;
-                        }
-                        final Task next = mPendingTasks.get(0);
-                        mPendingTasks.remove(0);
-                        runTask(next);
-                    }
-                });
+    private int compareOrder(Task lhs, Task rhs) {
+        final int order = mAgingIntervalNanos > 0
+                ? compareLong(lhs.mRank, rhs.mRank)
+                : -(lhs.mPriority < rhs.mPriority ? -1 : (lhs.mPriority == rhs.mPriority ? 0 : 1));
+        if (order != 0) {
+            return order;
+        }
+        return compareLong(lhs.mSequence, rhs.mSequence);
+    }
+
+    /**
+     * With aging, a priority level is worth the aging interval of waiting time.
+     * The rank is fixed when posted, so the heap order does not change while waiting.
+     */
+    private long rankOf(long postedTime, int priority) {
+        if (mAgingIntervalNanos <= 0 || priority == 0) {
+            return postedTime;
+        }
+        final long bonus = priority * mAgingIntervalNanos;
+        if (bonus / mAgingIntervalNanos != priority) {
+            //Overflowed. Treat as the highest or lowest.
+            return priority > 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return postedTime - bonus;
+    }
+
+    private boolean tryAcquirePermit() {
+        if (mMaxThreads <= 0) {
+            return true;
+        }
+        for (; ; ) {
+            final int permits = mPermits.get();
+            if (permits <= 0) {
+                return false;
             }
-        });
-        mRunningTasks.add(task);
+            if (mPermits.compareAndSet(permits, permits - 1)) {
+                return true;
+            }
+        }
     }
 
-    public Canceller post(final Job job, final Object tag) {
-        final Task task = new Task(job, tag);
+    private void releasePermit() {
+        if (mMaxThreads <= 0) {
+            return;
+        }
+        mPermits.incrementAndGet();
+    }
 
-        getDispatcher().run(new Runnable() {
-            @Override
-            public void run() {
-                if (!isRunnable()) {
-                    mPendingTasks.add(task);
-                    return;
+    private boolean hasPendingTasks() {
+        return !mPendingTasks.isEmpty() || !mPrioritizedTasks.isEmpty();
+    }
+
+    //Called only by the draining thread, so the peeked head is the polled one.
+    private Task pollPendingTask() {
+        for (; ; ) {
+            final Task fifoHead = mPendingTasks.peek();
+            final Task heapHead = mPrioritizedTasks.peek();
+            final Task task;
+            if (fifoHead == null && heapHead == null) {
+                return null;
+            }
+            if (heapHead == null || (fifoHead != null && compareOrder(fifoHead, heapHead) <= 0)) {
+                task = mPendingTasks.poll();
+            } else {
+                task = mPrioritizedTasks.poll();
+            }
+            if (task.isExpired(System.nanoTime())) {
+                task.giveUp();
+                continue;
+            }
+            if (task.tryStart()) {
+                return task;
+            }
+        }
+    }
+
+    /**
+     * Starts the pending tasks while the permits are available.
+     * The tasks finishing in place request another drain instead of recursing, so the stack does not grow.
+     */
+    private void drain() {
+        if (mDrainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        RuntimeException error = null;
+        int requests = 1;
+        for (; ; ) {
+            while (hasPendingTasks() && tryAcquirePermit()) {
+                Task task = null;
+                try {
+                    task = pollPendingTask();
+                    if (task == null) {
+                        releasePermit();
+                        break;
+                    }
+                    runTask(task);
+                } catch (final RuntimeException e) {
+                    if (task == null) {
+                        releasePermit();
+                    }
+                    //Start the rest of the tasks before throwing.
+                    if (error == null) {
+                        error = e;
+                    }
                 }
+            }
 
-                runTask(task);
+            requests = mDrainRequests.addAndGet(-requests);
+            if (requests == 0) {
+                break;
             }
-        });
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void runTask(final Task task) {
+        try {
+            task.run(new Runnable() {
+                @Override
+                public void run() {
+                    if (!task.finish()) {
+                        return;
+                    }
+                    releasePermit();
+                    drain();
+                }
+            });
+        } catch (final RuntimeException e) {
+            if (task.finish()) {
+                releasePermit();
+            }
+            throw e;
+        }
+    }
 
+    public Canceller post(final Job job, final Object tag) {
+        return post(job, tag, PRIORITY_DEFAULT, NO_DEADLINE);
+    }
+
+    /**
+     * Posts the job with the priority and the deadline.
+     *
+     * @param job            the job to run
+     * @param tag            the tag passed to the job
+     * @param priority       the larger priority starts first ({@link #PRIORITY_DEFAULT} is 0)
+     * @param deadlineMillis the time limit to start the job in milliseconds from now, or {@link #NO_DEADLINE}
+     * @return the cancellation handle of the job
+     */
+    public Canceller post(final Job job, final Object tag, final int priority, final long deadlineMillis) {
+        final long now = System.nanoTime();
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        final long deadline = deadlineMillis < 0 || timeout >= Long.MAX_VALUE / 2 ? Long.MAX_VALUE : now + timeout;
+        final Task task = new Task(job, tag, priority, rankOf(now, priority), deadline, mSequence.getAndIncrement());
+        if (deadline != Long.MAX_VALUE) {
+            //Set before the task is queued, so the task can not start before the expiry is set.
+            task.setExpiry(PromiseTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    //It is no-op if the task has already started or been canceled.
+                    task.giveUp();
+                }
+            }, deadlineMillis));
+        }
+        if (priority == PRIORITY_DEFAULT) {
+            mPendingTasks.offer(task);
+        } else {
+            mPrioritizedTasks.offer(task);
+        }
+        drain();
         return new TaskCanceller(task);
     }
 
     private static class Task {
+        private static final int PENDING = 0;
+        private static final int RUNNING = 1;
+        private static final int FINISHED = 2;
+        private static final int GAVE_UP = 3;
+
         private final Job mJob;
         private final Object mTag;
-        private Canceller mCanceller;
+        private final int mPriority;
+        private final long mRank;
+        private final long mDeadline;
+        private final long mSequence;
+        private final AtomicInteger mState = new AtomicInteger(PENDING);
+        //The timer to give up the task on the deadline. Canceled when the task leaves the pending state.
+        private volatile ScheduledFuture<?> mExpiry;
+        private volatile Canceller mCanceller;
+        private volatile boolean mIsCancelRequested;
 
-        public Task(Job job, Object tag) {
+        public Task(Job job, Object tag, int priority, long rank, long deadline, long sequence) {
             mJob = job;
             mTag = tag;
+            mPriority = priority;
+            mRank = rank;
+            mDeadline = deadline;
+            mSequence = sequence;
+        }
+
+        boolean isExpired(long now) {
+            return mDeadline != Long.MAX_VALUE && now - mDeadline >= 0;
+        }
+
+        void setExpiry(ScheduledFuture<?> expiry) {
+            mExpiry = expiry;
+        }
+
+        private void cancelExpiry() {
+            final ScheduledFuture<?> expiry = mExpiry;
+            if (expiry != null) {
+                mExpiry = null;
+                expiry.cancel(false);
+            }
+        }
+
+        boolean tryStart() {
+            if (!mState.compareAndSet(PENDING, RUNNING)) {
+                return false;
+            }
+            cancelExpiry();
+            return true;
+        }
+
+        boolean finish() {
+            return mState.compareAndSet(RUNNING, FINISHED);
+        }
+
+        boolean giveUp() {
+            if (!mState.compareAndSet(PENDING, GAVE_UP)) {
+                return false;
+            }
+            cancelExpiry();
+            mJob.giveUp(mTag);
+            return true;
         }
 
         void run(Runnable postProcess) {
             if (mCanceller != null) {
                 throw new UnsupportedOperationException();
             }
-            mCanceller = mJob.doWork(mTag, postProcess);
+            final Canceller canceller = mJob.doWork(mTag, postProcess);
+            mCanceller = canceller;
+            //The cancel may be requested while doWork is running.
+            if (mIsCancelRequested && canceller != null) {
+                canceller.cancel();
+            }
         }
 
         void cancel() {
-            if (mCanceller == null) {
+            if (giveUp()) {
                 return;
             }
-            mCanceller.cancel();
-            mCanceller = null;
-        }
 
-        void giveUp() {
-            if (mCanceller != null) {
-                throw new UnsupportedOperationException();
+            mIsCancelRequested = true;
+            final Canceller canceller = mCanceller;
+            if (canceller != null && mState.get() == RUNNING) {
+                canceller.cancel();
             }
-            mJob.giveUp(mTag);
         }
     }
 
-    private class TaskCanceller implements Canceller {
+    private static class TaskCanceller extends CancelTokenSource {
         private final Task mTask;
-        private final AtomicBoolean mIsCanceled = new AtomicBoolean();
 
         public TaskCanceller(Task task) {
             mTask = task;
         }
 
         @Override
-        public boolean isCanceled() {
-            return mIsCanceled.get();
-        }
-
-        @Override
-        public void cancel() {
-            if (mIsCanceled.getAndSet(true)) {
-                return;
-            }
-
-            getDispatcher().run(new Runnable() {
-                @Override
-                public void run() {
-                    if (mRunningTasks.contains(mTask)) {
-                        mTask.cancel();
-                        return;
-                    }
-
-                    if (!mPendingTasks.remove(mTask)) {
-                        return;
-                    }
-
-                    mTask.giveUp();
-                }
-            });
+        protected void onCanceled() {
+            mTask.cancel();
         }
     }
 }
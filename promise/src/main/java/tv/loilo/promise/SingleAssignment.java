@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015-2016 LoiLo inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tv.loilo.promise;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class for assigning the value only once and reading it from many threads.
+ * The value is assigned by a CAS on one field, and reading the assigned value takes no lock.
+ */
+public final class SingleAssignment<T> {
+
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+
+    private static final Object NULL_VALUE = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<SingleAssignment, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(SingleAssignment.class, Object.class, "mState");
+
+    //null or the stack of Node until assigned, and the value (or NULL_VALUE) after assigned.
+    private volatile Object mState;
+
+    private static boolean isAssigned(final Object state) {
+        return state != null && !(state instanceof Node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T unwrap(final Object state) {
+        return state == NULL_VALUE ? null : (T) state;
+    }
+
+    public boolean isAssigned() {
+        return isAssigned(mState);
+    }
+
+    /**
+     * Assigns the value if the value is not assigned yet.
+     *
+     * @param value the value to assign
+     * @return {@code true} if the value is assigned or {@code false} if the other value is already assigned
+     */
+    public boolean set(final T value) {
+        final Object assigned = value == null ? NULL_VALUE : value;
+        for (; ; ) {
+            final Object state = mState;
+            if (isAssigned(state)) {
+                return false;
+            }
+            if (STATE.compareAndSet(this, state, assigned)) {
+                RuntimeException error = null;
+                @SuppressWarnings("unchecked") Node<T> node = (Node<T>) state;
+                while (node != null) {
+                    try {
+                        node.signal(value);
+                    } catch (final RuntimeException e) {
+                        //Wake up all of the waiters before throwing.
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                    node = node.mNext;
+                }
+                if (error != null) {
+                    throw error;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits until the value is assigned and returns it.
+     * Spins briefly before parking the thread.
+     *
+     * @return the assigned value
+     * @throws InterruptedException the current thread is interrupted while waiting
+     */
+    public T get() throws InterruptedException {
+        Object state = mState;
+        if (isAssigned(state)) {
+            return unwrap(state);
+        }
+
+        for (int i = SPINS; i > 0; --i) {
+            state = mState;
+            if (isAssigned(state)) {
+                return unwrap(state);
+            }
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        final Node<T> node = new Node<>(Thread.currentThread(), null);
+        if (!push(node)) {
+            return unwrap(mState);
+        }
+
+        for (; ; ) {
+            LockSupport.park(this);
+            state = mState;
+            if (isAssigned(state)) {
+                return unwrap(state);
+            }
+            if (Thread.interrupted()) {
+                node.mThread = null;
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Registers the listener that is called once on the thread that assigns the value.
+     *
+     * @param listener the listener to receive the value
+     * @return {@code true} if the listener is registered or {@code false} if the value is already assigned
+     */
+    boolean listen(final OnAssignedListener<T> listener) {
+        return push(new Node<>(null, listener));
+    }
+
+    private boolean push(final Node<T> node) {
+        for (; ; ) {
+            final Object state = mState;
+            if (isAssigned(state)) {
+                return false;
+            }
+            @SuppressWarnings("unchecked") final Node<T> next = (Node<T>) state;
+            node.mNext = next;
+            if (STATE.compareAndSet(this, state, node)) {
+                return true;
+            }
+        }
+    }
+
+    interface OnAssignedListener<T> {
+        void onAssigned(T value);
+    }
+
+    private static final class Node<T> {
+        private volatile Thread mThread;
+        private final OnAssignedListener<T> mListener;
+        private Node<T> mNext;
+
+        Node(final Thread thread, final OnAssignedListener<T> listener) {
+            mThread = thread;
+            mListener = listener;
+        }
+
+        void signal(final T value) {
+            final Thread thread = mThread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+            if (mListener != null) {
+                mListener.onAssigned(value);
+            }
+        }
+    }
+}
@@ -74,4 +74,28 @@ public interface Submittable {
      * @return submitted task cancellation handle
      */
     Canceller submitOn(Scheduler scheduler);
+
+    /**
+     * Submits a task of this object for execution and returns a task cancellation handle.
+     * The task is scheduled by Scheduler in order of the priority and the task will running on default ExecutorService.
+     *
+     * @param scheduler the execution scheduler.
+     * @param tag       the tag associated with this execution (the tag can access from callback parameters)
+     * @param priority  the larger priority starts first ({@link Scheduler#PRIORITY_DEFAULT} is 0)
+     * @return submitted task cancellation handle
+     */
+    Canceller submitOn(Scheduler scheduler, Object tag, int priority);
+
+    /**
+     * Submits a task of this object for execution and returns a task cancellation handle.
+     * The task is scheduled by Scheduler in order of the priority and the task will running on default ExecutorService.
+     * If the task does not start until the deadline, the task is canceled without running.
+     *
+     * @param scheduler      the execution scheduler.
+     * @param tag            the tag associated with this execution (the tag can access from callback parameters)
+     * @param priority       the larger priority starts first ({@link Scheduler#PRIORITY_DEFAULT} is 0)
+     * @param deadlineMillis the time limit to start the task in milliseconds from now, or {@link Scheduler#NO_DEADLINE}
+     * @return submitted task cancellation handle
+     */
+    Canceller submitOn(Scheduler scheduler, Object tag, int priority, long deadlineMillis);
 }